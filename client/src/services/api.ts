@@ -77,9 +77,18 @@ class ApiService {
   }
 
   async getStores(): Promise<{ status: string; message: string; data: Store[] }> {
-    const result = await this.request<{ status: string; message: string; data: Store[] }>('/store');
-    // console.log('Fetched stores:', result.data);
-    return result;
+    // The listing is paginated; follow nextCursor until the last page
+    const stores: Store[] = [];
+    let cursor: string | null = null;
+    let result: { status: string; message: string; data: { stores: Store[]; nextCursor: string | null } };
+    do {
+      const query: string = cursor ? `?cursor=${encodeURIComponent(cursor)}` : '';
+      result = await this.request<{ status: string; message: string; data: { stores: Store[]; nextCursor: string | null } }>(`/store${query}`);
+      stores.push(...result.data.stores);
+      cursor = result.data.nextCursor;
+    } while (cursor);
+    // console.log('Fetched stores:', stores);
+    return { status: result.status, message: result.message, data: stores };
   }
 
   async getStore(token: string): Promise<{ status: string; message: string; data: Store }> {
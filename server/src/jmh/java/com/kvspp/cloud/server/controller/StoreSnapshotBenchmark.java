@@ -0,0 +1,89 @@
+package com.kvspp.cloud.server.controller;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.kvspp.cloud.server.model.Store;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+// getStore's transformation of the backend JSON dump into the API response, by store size
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StoreSnapshotBenchmark {
+
+	@Param({"10", "1000", "100000"})
+	private int entries;
+
+	private StoreController controller;
+	private ObjectMapper objectMapper;
+	private Store store;
+	private byte[] backendReply;
+
+	@Setup
+	public void setUp() throws IOException {
+		objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+		controller = new StoreController();
+		ReflectionTestUtils.setField(controller, "objectMapper", objectMapper);
+		store = new Store();
+		store.setToken("bench");
+		store.setName("Bench");
+		store.setDescription("Benchmark store");
+		store.setCreatedAt(Instant.parse("2025-01-01T00:00:00Z"));
+		ByteArrayOutputStream reply = new ByteArrayOutputStream();
+		try (JsonGenerator generator = objectMapper.createGenerator(reply, JsonEncoding.UTF8)) {
+			generator.writeStartObject();
+			generator.writeObjectFieldStart("store");
+			for (int i = 0; i < entries; i++) {
+				generator.writeObjectFieldStart("key-" + i);
+				generator.writeStringField("value", "value-" + i + "-" + "x".repeat(i % 64));
+				generator.writeEndObject();
+			}
+			generator.writeBooleanField("autosave", false);
+			generator.writeEndObject();
+			generator.writeEndObject();
+		}
+		backendReply = reply.toByteArray();
+	}
+
+	@Benchmark
+	public void transform(Blackhole blackhole) throws IOException {
+		CountingOutputStream out = new CountingOutputStream();
+		try (JsonParser parser = objectMapper.createParser(backendReply);
+			 JsonGenerator generator = objectMapper.createGenerator(out, JsonEncoding.UTF8)) {
+			controller.writeStoreSnapshot(store, parser, generator);
+		}
+		blackhole.consume(out.count);
+	}
+
+	private static final class CountingOutputStream extends OutputStream {
+		private long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
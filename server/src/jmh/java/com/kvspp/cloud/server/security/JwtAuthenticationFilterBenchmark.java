@@ -0,0 +1,89 @@
+package com.kvspp.cloud.server.security;
+
+import com.kvspp.cloud.server.model.User;
+import com.kvspp.cloud.server.repository.UserRepository;
+import com.kvspp.cloud.server.service.UserPrincipalCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// Per-request overhead of JwtAuthenticationFilter with a stubbed repository behind the principal
+// cache, so the numbers cover token handling and logging rather than the database
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JwtAuthenticationFilterBenchmark {
+
+	private JwtAuthenticationFilter filter;
+	private String bearerHeader;
+	private String wsToken;
+
+	@Setup
+	public void setUp() {
+		JwtUtil jwtUtil = JwtUtilBenchmark.newJwtUtil();
+		User user = new User();
+		user.setId(UUID.randomUUID());
+		user.setEmail("bench@example.com");
+		user.setName("Bench User");
+		UserRepository userRepository = mock(UserRepository.class);
+		when(userRepository.findByIdWithStores(any())).thenReturn(Optional.of(user));
+		UserPrincipalCache principalCache = new UserPrincipalCache();
+		ReflectionTestUtils.setField(principalCache, "maxEntries", 10_000);
+		ReflectionTestUtils.setField(principalCache, "ttlMs", 60_000L);
+		ReflectionTestUtils.setField(principalCache, "userRepository", userRepository);
+		ReflectionTestUtils.setField(principalCache, "meterRegistry", new SimpleMeterRegistry());
+		principalCache.init();
+		filter = new JwtAuthenticationFilter();
+		ReflectionTestUtils.setField(filter, "jwtUtil", jwtUtil);
+		ReflectionTestUtils.setField(filter, "principalCache", principalCache);
+		ReflectionTestUtils.setField(filter, "observationRegistry", ObservationRegistry.NOOP);
+		ReflectionTestUtils.setField(filter, "adminEmails", Set.of());
+		wsToken = jwtUtil.generateToken(user.getId().toString(), user.getEmail(), user.getName());
+		bearerHeader = "Bearer " + wsToken;
+	}
+
+	@Benchmark
+	public Object bearerHeader() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/store/bench/key");
+		request.addHeader("Authorization", bearerHeader);
+		return run(request);
+	}
+
+	@Benchmark
+	public Object webSocketQueryToken() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/ws/tcp-proxy");
+		request.setParameter("token", wsToken);
+		return run(request);
+	}
+
+	@Benchmark
+	public Object anonymous() throws Exception {
+		return run(new MockHttpServletRequest("GET", "/ping"));
+	}
+
+	private Object run(MockHttpServletRequest request) throws Exception {
+		SecurityContextHolder.clearContext();
+		filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+		return SecurityContextHolder.getContext().getAuthentication();
+	}
+}
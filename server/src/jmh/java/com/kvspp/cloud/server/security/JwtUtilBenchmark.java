@@ -0,0 +1,69 @@
+package com.kvspp.cloud.server.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Cost of what the filter does with every bearer token: validate and pull out the user ID,
+// both for a token already in the verified-claims cache and with the cache turned off
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JwtUtilBenchmark {
+
+	static final String SECRET = "benchmark-secret-key-that-is-at-least-256-bits-long";
+
+	private JwtUtil jwtUtil;
+	private JwtUtil uncachedJwtUtil;
+	private String token;
+
+	@Setup
+	public void setUp() {
+		jwtUtil = newJwtUtil();
+		uncachedJwtUtil = newJwtUtil(0);
+		token = jwtUtil.generateToken(UUID.randomUUID().toString(), "bench@example.com", "Bench User");
+	}
+
+	static JwtUtil newJwtUtil() {
+		return newJwtUtil(10_000);
+	}
+
+	static JwtUtil newJwtUtil(int cacheMaxEntries) {
+		JwtUtil jwtUtil = new JwtUtil();
+		ReflectionTestUtils.setField(jwtUtil, "secret", SECRET);
+		ReflectionTestUtils.setField(jwtUtil, "expiration", 86_400_000L);
+		ReflectionTestUtils.setField(jwtUtil, "cacheMaxEntries", cacheMaxEntries);
+		ReflectionTestUtils.setField(jwtUtil, "meterRegistry", new SimpleMeterRegistry());
+		jwtUtil.init();
+		return jwtUtil;
+	}
+
+	@Benchmark
+	public String extractUserId() {
+		return jwtUtil.extractUserId(token);
+	}
+
+	@Benchmark
+	public Boolean validateToken() {
+		return jwtUtil.validateToken(token);
+	}
+
+	@Benchmark
+	public String validateAndExtractUserId() {
+		return jwtUtil.validateAndExtractUserId(token);
+	}
+
+	@Benchmark
+	public String validateAndExtractUserIdUncached() {
+		return uncachedJwtUtil.validateAndExtractUserId(token);
+	}
+}
@@ -0,0 +1,135 @@
+package com.kvspp.cloud.server.tcp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Client round trips over loopback to a KvsppStandInServer: one blocking pooled-style
+// connection, single pipelined requests, and pipelined batches
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class KvsppRoundTripBenchmark {
+
+	static final int BATCH = 100;
+	static final String STORE = "bench";
+
+	// Simulated backend latency per command
+	@Param({"0"})
+	private long latencyMicros;
+
+	private KvsppStandInServer standIn;
+	private KvsppEventLoopGroup eventLoopGroup;
+	private KvsppPipelinedClient pipelinedClient;
+	private List<String> batch;
+	private String[] keys;
+	private String[] values;
+
+	@Setup
+	public void setUp() throws IOException {
+		standIn = new KvsppStandInServer().start().setLatencyMicros(latencyMicros, 0);
+		for (int i = 0; i < BATCH; i++) {
+			standIn.store(STORE).put("key-" + i, "value-" + i);
+		}
+		eventLoopGroup = new KvsppEventLoopGroup(1);
+		pipelinedClient = new KvsppPipelinedClient(standIn.getHost(), standIn.getPort(), eventLoopGroup,
+				1, 64, 10_000, 5_000, 30_000);
+		batch = new ArrayList<>(BATCH);
+		for (int i = 0; i < BATCH; i++) {
+			batch.add("GET key-" + i);
+		}
+		keys = new String[BATCH];
+		values = new String[BATCH];
+		for (int i = 0; i < BATCH; i++) {
+			keys[i] = "key-" + i;
+			values[i] = "value-" + i + "-" + "x".repeat(100);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		pipelinedClient.close();
+		eventLoopGroup.close();
+		standIn.close();
+	}
+
+	// One blocking connection per benchmark thread, like a connection checked out of the pool
+	@State(Scope.Thread)
+	public static class PooledConnection {
+		KvsppConnection connection;
+
+		@Setup
+		public void open(KvsppRoundTripBenchmark benchmark) throws IOException {
+			connection = KvsppConnection.open(benchmark.standIn.getHost(), benchmark.standIn.getPort(), 5_000, 30_000);
+			connection.select(STORE);
+		}
+
+		@TearDown
+		public void close() {
+			connection.close();
+		}
+	}
+
+	@Benchmark
+	public String pooledGet(PooledConnection pooled) throws IOException {
+		return pooled.connection.execute("GET key-1");
+	}
+
+	@Benchmark
+	public String pooledSet(PooledConnection pooled) throws IOException {
+		return pooled.connection.execute("SET", "key-1", "value-1");
+	}
+
+	@Benchmark
+	public String pipelinedGet() {
+		return pipelinedClient.send(STORE, "GET key-1").join();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public String pipelinedBatchGet() {
+		return last(pipelinedClient.sendAll(STORE, batch));
+	}
+
+	// Writes built as concatenated lines, the way the batch endpoints used to send them
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public String pipelinedBatchSetLines() {
+		List<String> commands = new ArrayList<>(BATCH);
+		for (int i = 0; i < BATCH; i++) {
+			commands.add("SET " + keys[i] + " " + values[i]);
+		}
+		return last(pipelinedClient.sendAll(STORE, commands));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public String pipelinedBatchSetParts() {
+		List<KvsppCommand> commands = new ArrayList<>(BATCH);
+		for (int i = 0; i < BATCH; i++) {
+			commands.add(KvsppCommand.set(keys[i], values[i]));
+		}
+		return last(pipelinedClient.sendBatch(STORE, commands));
+	}
+
+	private static String last(List<CompletableFuture<String>> replies) {
+		String last = null;
+		for (CompletableFuture<String> reply : replies) {
+			last = reply.join();
+		}
+		return last;
+	}
+}
@@ -0,0 +1,34 @@
+package com.kvspp.cloud.server.websocket;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// enforceStoreTokenOnSaveCommand runs on every proxied command, SAVE or not
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SaveCommandRewriteBenchmark {
+
+	@Param({"GET some-key", "SET some-key some value with spaces", "save other-store.json", "SAVE   other-store.json   extra"})
+	private String command;
+
+	private TcpProxyWebSocketHandler handler;
+
+	@Setup
+	public void setUp() {
+		handler = new TcpProxyWebSocketHandler();
+	}
+
+	@Benchmark
+	public String rewrite() {
+		return handler.enforceStoreTokenOnSaveCommand(command, "3f2c9a7e-store-token");
+	}
+}
@@ -0,0 +1,62 @@
+package com.kvspp.cloud.server.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency histogram (microseconds) and error count for one endpoint. Samples are only kept
+// while the run is in its measured phase, so warmup does not skew the percentiles.
+final class EndpointStats {
+
+	private final String key;
+	private final String label;
+	private final Recorder recorder = new Recorder(3);
+	private final LongAdder errors = new LongAdder();
+	private volatile boolean measuring;
+
+	EndpointStats(String key, String label) {
+		this.key = key;
+		this.label = label;
+	}
+
+	String key() { return key; }
+	String label() { return label; }
+
+	void startMeasuring() {
+		measuring = true;
+	}
+
+	void stopMeasuring() {
+		measuring = false;
+	}
+
+	void record(long startNanos, boolean ok) {
+		if (!measuring) {
+			return;
+		}
+		recorder.recordValue(Math.max(1, (System.nanoTime() - startNanos) / 1000));
+		if (!ok) {
+			errors.increment();
+		}
+	}
+
+	Result result(double seconds) {
+		Histogram histogram = recorder.getIntervalHistogram();
+		long count = histogram.getTotalCount();
+		return new Result(key, label, count, errors.sum(), count / seconds,
+				histogram.getValueAtPercentile(50) / 1000.0,
+				histogram.getValueAtPercentile(99) / 1000.0,
+				histogram.getValueAtPercentile(99.9) / 1000.0,
+				histogram.getMaxValue() / 1000.0);
+	}
+
+	// Latencies in milliseconds, throughput in requests per second
+	record Result(String key, String label, long requests, long errors, double throughput,
+				  double p50, double p99, double p999, double max) {
+
+		double errorRate() {
+			return requests == 0 ? 0 : (double) errors / requests;
+		}
+	}
+}
@@ -0,0 +1,473 @@
+package com.kvspp.cloud.server.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.kvspp.cloud.server.KvsppCloudServerApplication;
+import com.kvspp.cloud.server.model.Store;
+import com.kvspp.cloud.server.model.User;
+import com.kvspp.cloud.server.repository.StoreRepository;
+import com.kvspp.cloud.server.repository.UserRepository;
+import com.kvspp.cloud.server.security.JwtUtil;
+import com.kvspp.cloud.server.tcp.KvsppStandInServer;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// End-to-end load generator. Starts a KvsppStandInServer and the full application (H2, random
+// port) in this JVM, seeds users and stores, then drives REST key operations and /ws/tcp-proxy
+// sessions from virtual users, one virtual thread each. Every user runs a closed loop: it sends
+// the next request as soon as the previous reply arrives.
+//
+// Settings are system properties prefixed with "loadtest." (see README). Exits non-zero when an
+// SLO threshold or the baseline regression limit is broken.
+public class LoadTest {
+
+	private static final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+	private final int restUsers = intSetting("rest-users", 1000);
+	private final int wsUsers = intSetting("ws-users", 200);
+	private final int wsPipeline = intSetting("ws-pipeline", 1);
+	private final int warmupSeconds = intSetting("warmup-s", 5);
+	private final int durationSeconds = intSetting("duration-s", 30);
+	private final int owners = intSetting("owners", 20);
+	private final int keys = intSetting("keys", 1000);
+	private final int valueSize = intSetting("value-size", 64);
+	private final int backendLatencyMicros = intSetting("backend-latency-us", 0);
+	private final int backendJitterMicros = intSetting("backend-jitter-us", 0);
+	private final int requestTimeoutMs = intSetting("request-timeout-ms", 10000);
+	private final int[] mix = parseMix(setting("mix", "get:70,put:20,delete:10"));
+	private final SloCheck sloCheck = new SloCheck(setting("slo", "*.error-rate=0.01"));
+	private final String baseline = setting("baseline", "");
+	private final double maxRegression = Double.parseDouble(setting("max-regression", "0.2"));
+	private final File reportFile = new File(setting("report", "build/results/loadtest/report.json"));
+
+	private final EndpointStats restGet = new EndpointStats("rest-get", "GET /store/{token}/{key}");
+	private final EndpointStats restPut = new EndpointStats("rest-put", "PUT /store/{token}/{key}");
+	private final EndpointStats restDelete = new EndpointStats("rest-delete", "DELETE /store/{token}/{key}");
+	private final EndpointStats wsConnect = new EndpointStats("ws-connect", "WS /ws/tcp-proxy connect");
+	private final EndpointStats wsCommand = new EndpointStats("ws-command", "WS /ws/tcp-proxy command");
+	private final List<EndpointStats> endpoints = List.of(restGet, restPut, restDelete, wsConnect, wsCommand);
+
+	private final List<String> jwts = new ArrayList<>();
+	private final List<String> storeTokens = new ArrayList<>();
+	private HttpClient httpClient;
+	private String baseUrl;
+	private volatile boolean running = true;
+
+	public static void main(String[] args) throws Exception {
+		int exitCode;
+		try {
+			exitCode = new LoadTest().run();
+		} catch (Exception e) {
+			// Reported like an SLO failure, with the cause chain instead of a stack trace
+			System.out.println("✗ Load test aborted: " + describe(e));
+			for (Throwable cause = e.getCause(); cause != null && cause != cause.getCause(); cause = cause.getCause()) {
+				System.out.println("  caused by " + describe(cause));
+			}
+			exitCode = 2;
+		}
+		System.exit(exitCode);
+	}
+
+	private int run() throws Exception {
+		try (KvsppStandInServer standIn = new KvsppStandInServer().start()) {
+			standIn.setLatencyMicros(backendLatencyMicros, backendJitterMicros);
+			try (ConfigurableApplicationContext context = startServer(standIn)) {
+				baseUrl = "localhost:" + context.getEnvironment().getProperty("local.server.port");
+				seed(context, standIn);
+				httpClient = HttpClient.newBuilder()
+						.version(HttpClient.Version.HTTP_1_1)
+						.connectTimeout(Duration.ofMillis(requestTimeoutMs))
+						.build();
+				List<Thread> users = new ArrayList<>(restUsers + wsUsers);
+				for (int i = 0; i < restUsers; i++) {
+					int user = i;
+					users.add(Thread.ofVirtual().name("rest-user-" + i).start(() -> restUser(user)));
+				}
+				for (int i = 0; i < wsUsers; i++) {
+					int user = i;
+					users.add(Thread.ofVirtual().name("ws-user-" + i).start(() -> wsUser(user)));
+				}
+				System.out.println("Load test: " + restUsers + " REST users, " + wsUsers + " WebSocket users, "
+						+ warmupSeconds + " s warmup, " + durationSeconds + " s measured");
+				Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+				endpoints.forEach(EndpointStats::startMeasuring);
+				long start = System.nanoTime();
+				Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+				endpoints.forEach(EndpointStats::stopMeasuring);
+				double seconds = (System.nanoTime() - start) / 1e9;
+				running = false;
+				for (Thread user : users) {
+					user.join(requestTimeoutMs);
+				}
+				List<EndpointStats.Result> results = new ArrayList<>();
+				for (EndpointStats endpoint : endpoints) {
+					results.add(endpoint.result(seconds));
+				}
+				return report(results, standIn);
+			}
+		}
+	}
+
+	private ConfigurableApplicationContext startServer(KvsppStandInServer standIn) {
+		Map<String, String> properties = new LinkedHashMap<>();
+		properties.put("server.port", "0");
+		properties.put("management.server.port", "0");
+		properties.put("spring.datasource.url", "jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1");
+		properties.put("spring.datasource.driver-class-name", "org.h2.Driver");
+		properties.put("spring.datasource.username", "sa");
+		properties.put("spring.datasource.password", "");
+		properties.put("spring.jpa.hibernate.ddl-auto", "create-drop");
+		properties.put("spring.jpa.show-sql", "false");
+		properties.put("spring.security.oauth2.client.registration.google.client-id", "loadtest");
+		properties.put("spring.security.oauth2.client.registration.google.client-secret", "loadtest");
+		properties.put("jwt.secret", "loadtest-secret-key-that-is-at-least-256-bits-long-for-hs256");
+		properties.put("kvspp.tcp.host", standIn.getHost());
+		properties.put("kvspp.tcp.port", String.valueOf(standIn.getPort()));
+		properties.put("logging.level.com.kvspp.cloud.server", "WARN");
+		// All virtual users share one address and a handful of stores
+		properties.put("kvspp.rate-limit.ip.per-second", "0");
+		properties.put("kvspp.rate-limit.store.per-second", "0");
+		// Anything passed as loadtest.server.<property> goes to the server as <property>
+		for (String name : System.getProperties().stringPropertyNames()) {
+			if (name.startsWith("loadtest.server.")) {
+				properties.put(name.substring("loadtest.server.".length()), System.getProperty(name));
+			}
+		}
+		List<String> args = new ArrayList<>();
+		properties.forEach((name, value) -> args.add("--" + name + "=" + value));
+		return SpringApplication.run(KvsppCloudServerApplication.class, args.toArray(new String[0]));
+	}
+
+	// One store per owner; virtual users are spread over the owners round-robin
+	private void seed(ConfigurableApplicationContext context, KvsppStandInServer standIn) {
+		UserRepository userRepository = context.getBean(UserRepository.class);
+		StoreRepository storeRepository = context.getBean(StoreRepository.class);
+		JwtUtil jwtUtil = context.getBean(JwtUtil.class);
+		for (int i = 0; i < owners; i++) {
+			User user = new User();
+			user.setGoogleId("loadtest-" + i);
+			user.setEmail("loadtest-" + i + "@example.com");
+			user.setName("Load Test " + i);
+			user = userRepository.save(user);
+			Store store = new Store();
+			store.setToken(UUID.randomUUID().toString());
+			store.setName("loadtest-" + i);
+			store.setDescription("");
+			store.getOwners().add(user);
+			storeRepository.save(store);
+			user.getStores().add(store);
+			userRepository.save(user);
+			jwts.add(jwtUtil.generateToken(user.getId().toString(), user.getEmail(), user.getName()));
+			storeTokens.add(store.getToken());
+			Map<String, String> data = standIn.store(store.getToken());
+			for (int k = 0; k < keys; k++) {
+				data.put("key-" + k, "value-" + k);
+			}
+		}
+	}
+
+	private void restUser(int user) {
+		String jwt = jwts.get(user % owners);
+		String storeUrl = "http://" + baseUrl + "/store/" + storeTokens.get(user % owners) + "/";
+		String body = "{\"value\":\"" + "v".repeat(valueSize) + "\"}";
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		while (running) {
+			int op = pick(random);
+			HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(storeUrl + "key-" + random.nextInt(keys)))
+					.timeout(Duration.ofMillis(requestTimeoutMs))
+					.header("Authorization", "Bearer " + jwt);
+			EndpointStats stats;
+			if (op == 0) {
+				stats = restGet;
+				request.GET();
+			} else if (op == 1) {
+				stats = restPut;
+				request.header("Content-Type", "application/json").PUT(HttpRequest.BodyPublishers.ofString(body));
+			} else {
+				stats = restDelete;
+				request.DELETE();
+			}
+			long start = System.nanoTime();
+			try {
+				HttpResponse<Void> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.discarding());
+				stats.record(start, response.statusCode() == 200);
+			} catch (InterruptedException e) {
+				return;
+			} catch (Exception e) {
+				stats.record(start, false);
+				pause();
+			}
+		}
+	}
+
+	private void wsUser(int user) {
+		URI uri = URI.create("ws://" + baseUrl + "/ws/tcp-proxy?token=" + jwts.get(user % owners)
+				+ "&storeToken=" + storeTokens.get(user % owners));
+		String value = "v".repeat(valueSize);
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		while (running) {
+			ReplyListener listener = new ReplyListener();
+			WebSocket webSocket;
+			long start = System.nanoTime();
+			try {
+				CompletableFuture<String> selected = listener.expectReply();
+				webSocket = httpClient.newWebSocketBuilder()
+						.connectTimeout(Duration.ofMillis(requestTimeoutMs))
+						.buildAsync(uri, listener)
+						.get(requestTimeoutMs, TimeUnit.MILLISECONDS);
+				boolean ok = selected.get(requestTimeoutMs, TimeUnit.MILLISECONDS).contains("\"select_response\"");
+				wsConnect.record(start, ok);
+				if (!ok) {
+					webSocket.abort();
+					pause();
+					continue;
+				}
+			} catch (InterruptedException e) {
+				return;
+			} catch (Exception e) {
+				wsConnect.record(start, false);
+				pause();
+				continue;
+			}
+			try {
+				if (wsPipeline > 1) {
+					runPipelined(webSocket, listener, random, value);
+				}
+				while (running && wsPipeline <= 1) {
+					ObjectNode message = commandMessage(random, value);
+					CompletableFuture<String> reply = listener.expectReply();
+					start = System.nanoTime();
+					webSocket.sendText(message.toString(), true);
+					String response = reply.get(requestTimeoutMs, TimeUnit.MILLISECONDS);
+					wsCommand.record(start, isOkReply(response));
+				}
+				webSocket.sendClose(WebSocket.NORMAL_CLOSURE, "done");
+			} catch (InterruptedException e) {
+				webSocket.abort();
+				return;
+			} catch (Exception e) {
+				// Closed by the server or timed out; count it and reconnect
+				wsCommand.record(start, false);
+				webSocket.abort();
+				pause();
+			}
+		}
+	}
+
+	// Keeps up to ws-pipeline commands in flight, tagged with IDs so replies can be matched
+	private void runPipelined(WebSocket webSocket, ReplyListener listener, ThreadLocalRandom random, String value)
+			throws Exception {
+		Semaphore window = new Semaphore(wsPipeline);
+		long nextId = 0;
+		while (running) {
+			if (!window.tryAcquire(requestTimeoutMs, TimeUnit.MILLISECONDS)) {
+				throw new TimeoutException("No reply within " + requestTimeoutMs + " ms");
+			}
+			long id = nextId++;
+			ObjectNode message = commandMessage(random, value).put("id", id);
+			long sent = System.nanoTime();
+			listener.expectReply(id).whenComplete((response, error) -> {
+				wsCommand.record(sent, error == null && isOkReply(response));
+				window.release();
+			});
+			// The next frame may only be sent once this one has been written
+			webSocket.sendText(message.toString(), true).get(requestTimeoutMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private ObjectNode commandMessage(ThreadLocalRandom random, String value) {
+		int op = pick(random);
+		String key = "key-" + random.nextInt(keys);
+		String command = op == 0 ? "GET " + key : op == 1 ? "SET " + key + " " + value : "DELETE " + key;
+		ObjectNode message = objectMapper.createObjectNode().put("type", "command");
+		message.putObject("payload").put("command", command);
+		return message;
+	}
+
+	private static boolean isOkReply(String response) {
+		return response.contains("\"command_response\"") && !response.contains("ERROR");
+	}
+
+	private int pick(ThreadLocalRandom random) {
+		int roll = random.nextInt(mix[0] + mix[1] + mix[2]);
+		return roll < mix[0] ? 0 : roll < mix[0] + mix[1] ? 1 : 2;
+	}
+
+	// Keeps a failing user from spinning while the server or backend is unreachable
+	private static void pause() {
+		try {
+			Thread.sleep(100);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private int report(List<EndpointStats.Result> results, KvsppStandInServer standIn) throws Exception {
+		System.out.println();
+		System.out.printf("%-30s %10s %8s %10s %9s %9s %9s %9s%n",
+				"Endpoint", "Requests", "Errors", "Req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+		for (EndpointStats.Result r : results) {
+			System.out.printf("%-30s %10d %8d %10.1f %9.2f %9.2f %9.2f %9.2f%n",
+					r.label(), r.requests(), r.errors(), r.throughput(), r.p50(), r.p99(), r.p999(), r.max());
+		}
+		System.out.println("Backend commands: " + standIn.getCommandCount()
+				+ ", peak backend connections: " + standIn.getPeakConnections());
+
+		ObjectNode report = objectMapper.createObjectNode();
+		ObjectNode settings = report.putObject("settings");
+		settings.put("restUsers", restUsers);
+		settings.put("wsUsers", wsUsers);
+		settings.put("wsPipeline", wsPipeline);
+		settings.put("durationSeconds", durationSeconds);
+		settings.put("backendLatencyMicros", backendLatencyMicros);
+		ObjectNode endpointsNode = report.putObject("endpoints");
+		for (EndpointStats.Result r : results) {
+			ObjectNode node = endpointsNode.putObject(r.key());
+			node.put("requests", r.requests());
+			node.put("errors", r.errors());
+			node.put("throughput", r.throughput());
+			node.put("p50", r.p50());
+			node.put("p99", r.p99());
+			node.put("p999", r.p999());
+			node.put("max", r.max());
+		}
+		reportFile.getAbsoluteFile().getParentFile().mkdirs();
+		objectMapper.writeValue(reportFile, report);
+		System.out.println("Report written to " + reportFile.getPath());
+
+		List<String> failures = new ArrayList<>(sloCheck.violations(results));
+		if (!baseline.isEmpty()) {
+			failures.addAll(SloCheck.regressions(results, new File(baseline), maxRegression, objectMapper));
+		}
+		if (failures.isEmpty()) {
+			System.out.println("✓ All SLOs met");
+			return 0;
+		}
+		System.out.println("✗ SLO check failed:");
+		failures.forEach(failure -> System.out.println("  " + failure));
+		return 1;
+	}
+
+	private static String describe(Throwable error) {
+		return error.getMessage() == null
+				? error.getClass().getSimpleName()
+				: error.getClass().getSimpleName() + ": " + error.getMessage();
+	}
+
+	private static String setting(String name, String defaultValue) {
+		return System.getProperty("loadtest." + name, defaultValue);
+	}
+
+	private static int intSetting(String name, int defaultValue) {
+		return Integer.parseInt(setting(name, String.valueOf(defaultValue)));
+	}
+
+	// "get:70,put:20,delete:10" -> weights in GET, PUT, DELETE order
+	private static int[] parseMix(String spec) {
+		int[] weights = new int[3];
+		for (String part : spec.split(",")) {
+			String[] pair = part.trim().split(":", 2);
+			int weight = Integer.parseInt(pair[1].trim());
+			switch (pair[0].trim().toLowerCase()) {
+				case "get" -> weights[0] = weight;
+				case "put", "set" -> weights[1] = weight;
+				case "delete" -> weights[2] = weight;
+				default -> throw new IllegalArgumentException("Unknown operation in mix: " + pair[0]);
+			}
+		}
+		if (weights[0] + weights[1] + weights[2] <= 0) {
+			throw new IllegalArgumentException("Mix needs at least one positive weight");
+		}
+		return weights;
+	}
+
+	// Collects text frames into whole messages and hands each one to the caller waiting for it:
+	// by "id" for tagged commands, otherwise the single caller waiting for the next message
+	private static final class ReplyListener implements WebSocket.Listener {
+		private final StringBuilder text = new StringBuilder();
+		private final ConcurrentHashMap<Long, CompletableFuture<String>> tagged = new ConcurrentHashMap<>();
+		private volatile CompletableFuture<String> pending;
+
+		CompletableFuture<String> expectReply() {
+			pending = new CompletableFuture<>();
+			return pending;
+		}
+
+		CompletableFuture<String> expectReply(long id) {
+			CompletableFuture<String> reply = new CompletableFuture<>();
+			tagged.put(id, reply);
+			return reply;
+		}
+
+		@Override
+		public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+			text.append(data);
+			if (last) {
+				String message = text.toString();
+				text.setLength(0);
+				CompletableFuture<String> waiting = tagged.isEmpty() ? pending : tagged.remove(idOf(message));
+				if (waiting != null) {
+					waiting.complete(message);
+				}
+			}
+			webSocket.request(1);
+			return null;
+		}
+
+		private static long idOf(String message) {
+			try {
+				JsonNode id = objectMapper.readTree(message).get("id");
+				return id != null ? id.asLong() : -1;
+			} catch (IOException e) {
+				return -1;
+			}
+		}
+
+		@Override
+		public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+			fail(new IllegalStateException("Closed by server: " + statusCode + " " + reason));
+			return null;
+		}
+
+		@Override
+		public void onError(WebSocket webSocket, Throwable error) {
+			fail(error);
+		}
+
+		private void fail(Throwable error) {
+			CompletableFuture<String> waiting = pending;
+			if (waiting != null) {
+				waiting.completeExceptionally(error);
+			}
+			for (Long id : tagged.keySet()) {
+				CompletableFuture<String> reply = tagged.remove(id);
+				if (reply != null) {
+					reply.completeExceptionally(error);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package com.kvspp.cloud.server.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Checks a run against SLO thresholds and, optionally, a baseline report.
+//
+// Thresholds are "endpoint.metric=value" pairs separated by commas; endpoint "*" matches every
+// endpoint. p50/p99/p999/max are upper bounds in ms, error-rate is an upper bound (0..1) and
+// throughput a lower bound in requests/s. Example: "rest-get.p99=50,*.error-rate=0.01".
+final class SloCheck {
+
+	private record Threshold(String endpoint, String metric, double limit) {}
+
+	private final List<Threshold> thresholds = new ArrayList<>();
+
+	SloCheck(String spec) {
+		if (spec == null || spec.isBlank()) {
+			return;
+		}
+		for (String entry : spec.split(",")) {
+			String[] pair = entry.trim().split("=", 2);
+			int dot = pair[0].indexOf('.');
+			if (pair.length != 2 || dot <= 0) {
+				throw new IllegalArgumentException("Invalid SLO entry: " + entry);
+			}
+			String metric = pair[0].substring(dot + 1);
+			if (!List.of("p50", "p99", "p999", "max", "error-rate", "throughput").contains(metric)) {
+				throw new IllegalArgumentException("Unknown SLO metric: " + metric);
+			}
+			thresholds.add(new Threshold(pair[0].substring(0, dot), metric, Double.parseDouble(pair[1])));
+		}
+	}
+
+	List<String> violations(List<EndpointStats.Result> results) {
+		List<String> violations = new ArrayList<>();
+		for (Threshold threshold : thresholds) {
+			boolean matched = false;
+			for (EndpointStats.Result result : results) {
+				if (!threshold.endpoint().equals("*") && !threshold.endpoint().equals(result.key())) {
+					continue;
+				}
+				matched = true;
+				if (result.requests() == 0 && !threshold.metric().equals("throughput")) {
+					continue;
+				}
+				double actual = value(result, threshold.metric());
+				boolean ok = threshold.metric().equals("throughput") ? actual >= threshold.limit() : actual <= threshold.limit();
+				if (!ok) {
+					violations.add(result.key() + "." + threshold.metric() + " = " + format(actual)
+							+ (threshold.metric().equals("throughput") ? " < " : " > ") + format(threshold.limit()));
+				}
+			}
+			if (!matched) {
+				violations.add("No endpoint named " + threshold.endpoint());
+			}
+		}
+		return violations;
+	}
+
+	// Compares p99 and throughput with a previous report; maxRegression is a fraction (0.2 = 20% worse)
+	static List<String> regressions(List<EndpointStats.Result> results, File baseline, double maxRegression,
+									ObjectMapper objectMapper) throws IOException {
+		List<String> regressions = new ArrayList<>();
+		JsonNode endpoints = objectMapper.readTree(baseline).path("endpoints");
+		for (EndpointStats.Result result : results) {
+			JsonNode previous = endpoints.path(result.key());
+			if (previous.isMissingNode() || previous.path("requests").asLong() == 0 || result.requests() == 0) {
+				continue;
+			}
+			double p99 = previous.path("p99").asDouble();
+			if (result.p99() > p99 * (1 + maxRegression)) {
+				regressions.add(result.key() + ".p99 = " + format(result.p99()) + " ms, baseline " + format(p99) + " ms");
+			}
+			double throughput = previous.path("throughput").asDouble();
+			if (result.throughput() < throughput * (1 - maxRegression)) {
+				regressions.add(result.key() + ".throughput = " + format(result.throughput())
+						+ " req/s, baseline " + format(throughput) + " req/s");
+			}
+		}
+		return regressions;
+	}
+
+	private static double value(EndpointStats.Result result, String metric) {
+		return switch (metric) {
+			case "p50" -> result.p50();
+			case "p99" -> result.p99();
+			case "p999" -> result.p999();
+			case "max" -> result.max();
+			case "error-rate" -> result.errorRate();
+			default -> result.throughput();
+		};
+	}
+
+	private static String format(double value) {
+		return String.format("%.3f", value);
+	}
+}
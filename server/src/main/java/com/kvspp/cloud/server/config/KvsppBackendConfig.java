@@ -0,0 +1,19 @@
+package com.kvspp.cloud.server.config;
+
+import com.kvspp.cloud.server.tcp.KvsppEventLoopGroup;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+
+@Configuration
+public class KvsppBackendConfig {
+
+    // Shared by the REST pipelined client and the WebSocket proxy sessions
+    @Bean(destroyMethod = "close")
+    public KvsppEventLoopGroup kvsppEventLoopGroup(@Value("${kvspp.tcp.event-loop-threads:2}") int threads)
+            throws IOException {
+        return new KvsppEventLoopGroup(threads);
+    }
+}
@@ -0,0 +1,48 @@
+package com.kvspp.cloud.server.config;
+
+import com.kvspp.cloud.server.service.KvsppBackendRegistry;
+import com.kvspp.cloud.server.service.KvsppRebalanceService;
+import com.kvspp.cloud.server.service.KvsppRebalanceService.RebalanceResult;
+import com.kvspp.cloud.server.tcp.KvsppBackend;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Operator view of the backend ring: GET lists backends and pinned stores, POST with
+// {"host": ..., "port": ...} adds a backend and moves the affected stores. POST without
+// a body retries stores whose move failed.
+@Component
+@Endpoint(id = "kvsppbackends")
+public class KvsppBackendsEndpoint {
+
+    @Autowired
+    private KvsppBackendRegistry backendRegistry;
+    @Autowired
+    private KvsppRebalanceService rebalanceService;
+
+    @ReadOperation
+    public Map<String, Object> backends() {
+        Map<String, String> pinned = new HashMap<>();
+        backendRegistry.getPinned().forEach((token, backend) -> pinned.put(token, backend.toString()));
+        return Map.of(
+                "backends", backendRegistry.getBackends().stream().map(KvsppBackend::toString).toList(),
+                "pinned", pinned);
+    }
+
+    @WriteOperation
+    public RebalanceResult addBackend(@Nullable String host, @Nullable Integer port) {
+        if (host == null && port == null) {
+            return rebalanceService.retryPinned();
+        }
+        if (host == null || port == null) {
+            throw new IllegalArgumentException("Both host and port are required");
+        }
+        return rebalanceService.addBackend(new KvsppBackend(host, port));
+    }
+}
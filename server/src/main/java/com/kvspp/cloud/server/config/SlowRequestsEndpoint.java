@@ -0,0 +1,26 @@
+package com.kvspp.cloud.server.config;
+
+import com.kvspp.cloud.server.service.SlowRequestRecorder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+// Recent requests and proxy commands slower than kvspp.tracing.slow-threshold-ms, newest
+// first, each with its auth / DB / access check / backend stages
+@Component
+@Endpoint(id = "slowrequests")
+public class SlowRequestsEndpoint {
+
+    @Autowired
+    private SlowRequestRecorder slowRequestRecorder;
+
+    @ReadOperation
+    public Map<String, Object> slowRequests() {
+        return Map.of(
+                "thresholdMs", slowRequestRecorder.getSlowThresholdMs(),
+                "requests", slowRequestRecorder.recent());
+    }
+}
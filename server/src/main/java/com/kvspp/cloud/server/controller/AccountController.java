@@ -1,7 +1,10 @@
 package com.kvspp.cloud.server.controller;
 
 import com.kvspp.cloud.server.model.User;
+import com.kvspp.cloud.server.model.Store;
 import com.kvspp.cloud.server.repository.UserRepository;
+import com.kvspp.cloud.server.service.StoreAccessIndex;
+import com.kvspp.cloud.server.service.UserPrincipalCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -11,6 +14,7 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.security.web.authentication.logout.SecurityContextLogoutHandler;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.annotation.Transactional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,15 +33,34 @@ public class AccountController {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private UserPrincipalCache principalCache;
+
+    @Autowired
+    private StoreAccessIndex accessIndex;
+
     @DeleteMapping("/delete")
+    @Transactional
     public ResponseEntity<ApiResponse> deleteAccount(@AuthenticationPrincipal User user, HttpServletRequest request, HttpServletResponse response) {
         logger.info("DELETE /account/delete called");
         if (user == null) {
             logger.warn("Delete account failed: Not authenticated");
             return ResponseEntity.status(401).body(new ApiResponse("error", "Not authenticated"));
         }
+        // The principal is a cached copy shared with other requests; delete a managed one instead
+        Optional<User> account = userRepository.findByIdWithStores(user.getId());
+        if (account.isEmpty()) {
+            return ResponseEntity.status(404).body(new ApiResponse("error", "Account not found"));
+        }
         logger.info("Deleting account for user: " + user.getEmail());
-        userRepository.delete(user);
+        userRepository.delete(account.get());
+        // Co-owners' cached store lists, and the stores' owner sets, still name this user. Inside
+        // the transaction these are dropped again after the commit.
+        principalCache.invalidate(user.getId());
+        for (Store store : account.get().getStores()) {
+            accessIndex.invalidate(store.getToken());
+            principalCache.invalidateOwners(store);
+        }
         // Log out after deleting account
         new SecurityContextLogoutHandler().logout(request, response, null);
         return ResponseEntity.ok(new ApiResponse("success", "Account deleted and logged out"));
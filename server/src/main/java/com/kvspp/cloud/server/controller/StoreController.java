@@ -1,20 +1,53 @@
 package com.kvspp.cloud.server.controller;
 
 import com.kvspp.cloud.server.model.Store;
+import com.kvspp.cloud.server.model.StoreOwnerSummary;
+import com.kvspp.cloud.server.model.StoreSummary;
 import com.kvspp.cloud.server.model.User;
 import com.kvspp.cloud.server.repository.StoreRepository;
 import com.kvspp.cloud.server.repository.UserRepository;
 import com.kvspp.cloud.server.service.KvsppTcpClientService;
+import com.kvspp.cloud.server.service.KvsppValueCache;
+import com.kvspp.cloud.server.service.KvsppWriteBehindBuffer;
+import com.kvspp.cloud.server.service.RequestRateLimiter;
+import com.kvspp.cloud.server.service.StoreAccessIndex;
 import com.kvspp.cloud.server.service.StoreAccessService;
+import com.kvspp.cloud.server.service.StoreSnapshotService;
+import com.kvspp.cloud.server.service.UserPrincipalCache;
 import com.kvspp.cloud.server.service.AccessResult;
+import com.kvspp.cloud.server.tcp.KvsppCommand;
+import com.kvspp.cloud.server.tcp.KvsppLineCodec;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.MediaType;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 @RestController
@@ -31,6 +64,32 @@ public class StoreController {
     private KvsppTcpClientService kvsppTcpClientService;
     @Autowired
     private StoreAccessService storeAccessService;
+    @Autowired
+    private KvsppValueCache valueCache;
+    @Autowired
+    private KvsppWriteBehindBuffer writeBehindBuffer;
+    @Autowired
+    private StoreSnapshotService storeSnapshotService;
+    @Autowired
+    private UserPrincipalCache principalCache;
+    @Autowired
+    private StoreAccessIndex accessIndex;
+    @Autowired
+    private RequestRateLimiter rateLimiter;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private static final int MAX_ERROR_REPLY_BYTES = 4096;
+
+    @Value("${kvspp.batch.max-keys:1000}")
+    private int maxBatchKeys;
+
+    @Value("${kvspp.scan.max-limit:1000}")
+    private int maxScanLimit;
+
+    @Value("${kvspp.store-list.max-limit:500}")
+    private int maxListLimit;
 
     @PostMapping
     public ResponseEntity<ApiResponse> createStore(@AuthenticationPrincipal User user, HttpServletRequest request,
@@ -65,10 +124,16 @@ public class StoreController {
         store.setToken(token);
         store.setName(name);
         store.setDescription(description);
-        store.getOwners().add(user);
+        // The principal may be shared through the principal cache, so update a freshly loaded copy
+        User owner = userRepository.findByIdWithStores(user.getId()).orElse(null);
+        if (owner == null) {
+            return ResponseEntity.status(401).body(new ApiResponse("error", "Not authenticated"));
+        }
+        store.getOwners().add(owner);
         storeRepository.save(store);
-        user.getStores().add(store);
-        userRepository.save(user);
+        owner.getStores().add(store);
+        userRepository.save(owner);
+        principalCache.invalidate(owner.getId());
 
         logger.info("✓ Store created successfully: " + store.getName() + " (token: " + store.getToken() + ")");
 
@@ -78,48 +143,117 @@ public class StoreController {
                 "description", store.getDescription())));
     }
 
+    // Keyset-paginated, in creation order. The ETag follows the user's membership version, so an
+    // unchanged listing is answered with 304 straight from the principal cache.
     @GetMapping
-    public ResponseEntity<ApiResponse> listStores(@AuthenticationPrincipal User user, HttpServletRequest request) {
-        logger.info("GET /store - listStores called");
-        logger.info("Authorization header: " + (request.getHeader("Authorization") != null ? "Present" : "MISSING"));
+    public ResponseEntity<ApiResponse> listStores(@AuthenticationPrincipal User user, HttpServletRequest request,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        logger.debug("GET /store - listStores called");
 
         if (user == null) {
             logger.warn("✗ List stores failed: User is NULL (not authenticated)");
             return ResponseEntity.status(401).body(new ApiResponse("error", "Not authenticated"));
         }
+        if (limit < 1 || limit > maxListLimit) {
+            return ResponseEntity.badRequest().body(new ApiResponse("error", "limit must be between 1 and " + maxListLimit));
+        }
 
-        logger.info("✓ User authenticated: " + user.getEmail());
+        Instant afterCreatedAt = Instant.EPOCH;
+        String afterToken = "";
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int split = decoded.indexOf(' ');
+                afterCreatedAt = Instant.parse(decoded.substring(0, split));
+                afterToken = decoded.substring(split + 1);
+            } catch (RuntimeException e) {
+                return ResponseEntity.badRequest().body(new ApiResponse("error", "Invalid cursor"));
+            }
+        }
+
+        // One more row than asked for tells whether there is a next page
+        List<StoreSummary> page = storeRepository.findSummariesByOwner(user.getId(), afterCreatedAt, afterToken,
+                Limit.of(limit + 1));
+        boolean more = page.size() > limit;
+        if (more) {
+            page = page.subList(0, limit);
+        }
+        Map<String, List<Map<String, Object>>> ownersByStore = new HashMap<>();
+        if (!page.isEmpty()) {
+            List<String> tokens = page.stream().map(StoreSummary::token).toList();
+            for (StoreOwnerSummary owner : storeRepository.findOwnerSummaries(tokens)) {
+                Map<String, Object> userInfo = new LinkedHashMap<>();
+                userInfo.put("id", owner.id());
+                userInfo.put("email", owner.email());
+                userInfo.put("name", owner.name());
+                ownersByStore.computeIfAbsent(owner.storeToken(), t -> new ArrayList<>()).add(userInfo);
+            }
+        }
+
+        List<Map<String, Object>> storeList = new ArrayList<>(page.size());
+        for (StoreSummary store : page) {
+            Map<String, Object> storeInfo = new LinkedHashMap<>();
+            storeInfo.put("token", store.token());
+            storeInfo.put("name", store.name());
+            storeInfo.put("description", store.description());
+            storeInfo.put("createdAt", store.createdAt());
+            storeInfo.put("users", ownersByStore.getOrDefault(store.token(), List.of()));
+            storeList.add(storeInfo);
+        }
+        String nextCursor = null;
+        if (more) {
+            StoreSummary last = page.get(page.size() - 1);
+            nextCursor = Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString((last.createdAt() + " " + last.token()).getBytes(StandardCharsets.UTF_8));
+        }
+
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("stores", storeList);
+        data.put("nextCursor", nextCursor);
+        logger.debug("✓ Returning " + storeList.size() + " stores");
+
+        // Derived from the page itself, so any change by this user or a co-owner shows up
+        String etag = pageEtag(data);
+        CacheControl cacheControl = CacheControl.noCache().cachePrivate();
+        if (etag != null && etagMatches(request.getHeader("If-None-Match"), etag)) {
+            return ResponseEntity.status(304).eTag(etag).cacheControl(cacheControl).build();
+        }
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok().cacheControl(cacheControl);
+        if (etag != null) {
+            ok.eTag(etag);
+        }
+        return ok.body(new ApiResponse("success", "Stores fetched", data));
+    }
+
+    private String pageEtag(Map<String, Object> data) {
+        try {
+            return "\"" + DigestUtils.md5DigestAsHex(objectMapper.writeValueAsBytes(data)) + "\"";
+        } catch (JsonProcessingException e) {
+            logger.warn("Could not compute store list ETag: " + e.getMessage());
+            return null;
+        }
+    }
 
-        Set<Store> stores = user.getStores();
-        logger.info("Found " + stores.size() + " stores for user");
-
-        List<Map<String, Object>> storeList = stores.stream().map(store -> {
-            // Create a list of user information for all owners
-            List<Map<String, Object>> users = store.getOwners().stream().map(owner -> {
-                Map<String, Object> userInfo = new HashMap<>();
-                userInfo.put("id", owner.getId());
-                userInfo.put("email", owner.getEmail());
-                userInfo.put("name", owner.getName());
-                return userInfo;
-            }).collect(Collectors.toList());
-
-            Map<String, Object> storeInfo = new HashMap<>();
-            storeInfo.put("token", store.getToken());
-            storeInfo.put("name", store.getName());
-            storeInfo.put("description", store.getDescription());
-            storeInfo.put("createdAt", store.getCreatedAt());
-            storeInfo.put("users", users);
-            return storeInfo;
-        }).collect(Collectors.toList());
-
-        logger.info("✓ Returning " + storeList.size() + " stores");
-
-        return ResponseEntity.ok(new ApiResponse("success", "Stores fetched", storeList));
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag) || tag.equals("*")) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @GetMapping("/{token}")
     public ResponseEntity<ApiResponse> getStore(@AuthenticationPrincipal User user, HttpServletRequest request,
-            @PathVariable("token") String token) {
+            HttpServletResponse response, @PathVariable("token") String token) {
         logger.info("GET /store/" + token + " - getStore called");
         logger.info("Authorization header: " + (request.getHeader("Authorization") != null ? "Present" : "MISSING"));
 
@@ -130,7 +264,7 @@ public class StoreController {
 
         logger.info("✓ User authenticated: " + user.getEmail());
 
-        Store store = storeRepository.findByToken(token);
+        Store store = storeRepository.findByTokenWithOwners(token);
         if (store == null) {
             logger.warn("Store not found: " + token);
             return ResponseEntity.status(404).body(new ApiResponse("error", "Store not found"));
@@ -143,59 +277,90 @@ public class StoreController {
         logger.info("✓ User is owner of store, fetching store data from TCP server");
 
         try {
-            // First, load the store
-            // String loadResult = kvsppTcpClientService.sendCommand(token, "LOAD " +
-            // token);
-            // if (!"OK".equals(loadResult)) {
-            // return ResponseEntity.status(500).body(new ApiResponse("error", "Failed to
-            // load store: " + loadResult));
-            // }
-            // Select the store and get JSON
-            String json = kvsppTcpClientService.sendCommand(token, "JSON");
-            // System.out.println("Raw TCP JSON response: [" + json + "]");
-            if (json != null && json.trim().startsWith("{")) {
-                // Parse JSON string to Map using TypeReference for type safety
-                com.fasterxml.jackson.databind.ObjectMapper mapper = new com.fasterxml.jackson.databind.ObjectMapper();
-                Map<String, Object> storeData = mapper.readValue(json,
-                        new com.fasterxml.jackson.core.type.TypeReference<Map<String, Object>>() {
-                        });
-                // Transform the 'store' key if present
-                if (storeData.containsKey("store") && storeData.get("store") instanceof Map) {
-                    @SuppressWarnings("unchecked")
-                    Map<String, Object> origStore = (Map<String, Object>) storeData.get("store");
-                    Map<String, Object> newStore = new HashMap<>();
-                    for (Map.Entry<String, Object> entry : origStore.entrySet()) {
-                        String k = entry.getKey();
-                        Object v = entry.getValue();
-                        if ("autosave".equals(k)) {
-                            newStore.put(k, v);
-                        } else if (v instanceof Map && ((Map<?, ?>) v).containsKey("value")) {
-                            newStore.put(k, ((Map<?, ?>) v).get("value"));
-                        } else {
-                            newStore.put(k, v);
-                        }
-                    }
-                    storeData.put("store", newStore);
+            writeBehindBuffer.flushAndWait(token);
+            // The JSON reply is transformed token by token straight into the response, so memory
+            // use does not grow with the size of the store
+            String failure = kvsppTcpClientService.sendCommandStreaming(token, "JSON", reply -> {
+                PushbackInputStream in = new PushbackInputStream(reply, 1);
+                int first = in.read();
+                while (first == ' ' || first == '\t') {
+                    first = in.read();
+                }
+                if (first != '{') {
+                    String rest = first == -1 ? "" : (char) first + new String(in.readNBytes(MAX_ERROR_REPLY_BYTES), StandardCharsets.UTF_8);
+                    in.transferTo(OutputStream.nullOutputStream());
+                    return rest.trim();
+                }
+                in.unread(first);
+                response.setStatus(200);
+                response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+                try (JsonParser parser = objectMapper.createParser(in);
+                     JsonGenerator generator = objectMapper.createGenerator(response.getOutputStream(), JsonEncoding.UTF8)) {
+                    writeStoreSnapshot(store, parser, generator);
+                    // Consume anything after the closing brace so the connection can be reused
+                    in.transferTo(OutputStream.nullOutputStream());
                 }
-                Map<String, Object> response = new HashMap<>();
-                response.put("token", store.getToken());
-                response.put("name", store.getName());
-                response.put("description", store.getDescription());
-                response.put("createdAt", store.getCreatedAt());
-                // response.put("updatedAt", store.getUpdatedAt());
-                response.putAll(storeData); // This will add the 'store' key as in the TCP response
-                return ResponseEntity.ok(new ApiResponse("success", "Store fetched", response));
-            } else if (json != null && json.startsWith("ERROR")) {
-                return ResponseEntity.status(400).body(new ApiResponse("error", json));
+                return null;
+            });
+            if (failure == null) {
+                // Body already written
+                return null;
+            } else if (failure.startsWith("ERROR")) {
+                return ResponseEntity.status(400).body(new ApiResponse("error", failure));
             } else {
-                return ResponseEntity.status(500).body(new ApiResponse("error", "Unexpected response: " + json));
+                return ResponseEntity.status(500).body(new ApiResponse("error", "Unexpected response: " + failure));
             }
         } catch (Exception e) {
+            if (response.isCommitted()) {
+                logger.warn("✗ Store snapshot for " + token + " was cut off: " + e.getMessage());
+                return null;
+            }
             return ResponseEntity.status(500).body(new ApiResponse("error", e.getMessage()));
         }
     }
 
+    // Writes the ApiResponse envelope around the backend's JSON dump, unwrapping each
+    // {"value": ...} entry under "store". Only one entry is held in memory at a time.
+    void writeStoreSnapshot(Store store, JsonParser parser, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("status", "success");
+        generator.writeStringField("message", "Store fetched");
+        generator.writeObjectFieldStart("data");
+        generator.writeStringField("token", store.getToken());
+        generator.writeStringField("name", store.getName());
+        generator.writeStringField("description", store.getDescription());
+        generator.writeObjectField("createdAt", store.getCreatedAt());
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Backend JSON reply is not an object");
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            generator.writeFieldName(field);
+            if (!"store".equals(field) || value != JsonToken.START_OBJECT) {
+                generator.copyCurrentStructure(parser);
+                continue;
+            }
+            generator.writeStartObject();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String key = parser.currentName();
+                parser.nextToken();
+                generator.writeFieldName(key);
+                if ("autosave".equals(key) || parser.currentToken() != JsonToken.START_OBJECT) {
+                    generator.copyCurrentStructure(parser);
+                } else {
+                    JsonNode entry = objectMapper.readTree(parser);
+                    generator.writeTree(entry.has("value") ? entry.get("value") : entry);
+                }
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
     @DeleteMapping("/{token}")
+    @Transactional
     public ResponseEntity<ApiResponse> deleteStore(@AuthenticationPrincipal User user, HttpServletRequest request,
             @PathVariable("token") String token) {
         logger.info("DELETE /store/" + token + " - deleteStore called");
@@ -224,6 +389,10 @@ public class StoreController {
         store.getOwners().clear();
         storeRepository.save(store);
         storeRepository.delete(store);
+        accessIndex.invalidate(token);
+        for (User owner : owners) {
+            principalCache.invalidate(owner.getId());
+        }
 
         logger.info("✓ Store deleted: " + token);
 
@@ -243,7 +412,7 @@ public class StoreController {
 
         logger.info("✓ User authenticated: " + user.getEmail());
 
-        Store store = storeRepository.findByToken(token);
+        Store store = storeRepository.findByTokenWithOwners(token);
         if (store == null) {
             return ResponseEntity.status(404).body(new ApiResponse("error", "Store not found"));
         }
@@ -264,6 +433,7 @@ public class StoreController {
         }
         if (changed) {
             storeRepository.save(store);
+            principalCache.invalidateOwners(store);
             logger.info("✓ Store updated: " + token);
             return ResponseEntity.ok(new ApiResponse("success", "Store updated"));
         } else {
@@ -277,6 +447,7 @@ public class StoreController {
     }
 
     @PostMapping("/{token}/owners")
+    @Transactional
     public ResponseEntity<ApiResponse> addOwnerToStore(@AuthenticationPrincipal User user, HttpServletRequest request,
             @PathVariable("token") String token, @RequestBody Map<String, String> body) {
         logger.info("POST /store/" + token + "/owners - addOwnerToStore called");
@@ -312,6 +483,9 @@ public class StoreController {
         newOwner.getStores().add(store);
         storeRepository.save(store);
         userRepository.save(newOwner);
+        accessIndex.invalidate(token);
+        // Every owner's cached store list shows the store's owners
+        principalCache.invalidateOwners(store);
 
         logger.info("✓ Owner added to store: " + email);
 
@@ -320,41 +494,118 @@ public class StoreController {
 
     // --- KVS++ TCP Endpoints ---
 
-    @GetMapping("/{token}/{key}")
-    public ResponseEntity<ApiResponse> getValue(@AuthenticationPrincipal User user,
-            @PathVariable("token") String token, @PathVariable("key") String key) {
+    // Pages through a cached, sorted snapshot of the store; a key literally named "keys"
+    // is still reachable through mget
+    @GetMapping("/{token}/keys")
+    public ResponseEntity<ApiResponse> scanKeys(@AuthenticationPrincipal User user, HttpServletRequest request,
+            @PathVariable("token") String token,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", defaultValue = "100") int limit,
+            @RequestParam(value = "prefix", defaultValue = "") String prefix) {
         AccessResult access = storeAccessService.checkAccess(user, token);
         if (!access.allowed)
             return ResponseEntity.status(403).body(new ApiResponse("error", access.errorMessage));
+        ResponseEntity<ApiResponse> limited = rateLimited(request, token, 1);
+        if (limited != null)
+            return limited;
+        if (limit < 1 || limit > maxScanLimit)
+            return ResponseEntity.badRequest().body(new ApiResponse("error", "limit must be between 1 and " + maxScanLimit));
         try {
-            String output = kvsppTcpClientService.sendCommand(token, "GET " + key);
-            if (output != null && output.startsWith("VALUE ")) {
-                String value = output.substring(6);
-                return ResponseEntity.ok(new ApiResponse("success", "Value fetched", Map.of("value", value)));
-            } else if ("NOT_FOUND".equals(output)) {
-                return ResponseEntity.ok(new ApiResponse("success", "Key not found", Map.of("value", null)));
-            } else if (output != null && output.startsWith("ERROR")) {
-                return ResponseEntity.status(400).body(new ApiResponse("error", output));
-            } else {
-                return ResponseEntity.status(500).body(new ApiResponse("error", "Unexpected response: " + output));
+            StoreSnapshotService.Page page = storeSnapshotService.scan(token, cursor, limit, prefix);
+            List<Map<String, Object>> entries = new ArrayList<>(page.entries().size());
+            for (Map.Entry<String, String> entry : page.entries()) {
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("key", entry.getKey());
+                item.put("value", entry.getValue());
+                entries.add(item);
             }
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("entries", entries);
+            data.put("nextCursor", page.nextCursor());
+            data.put("version", page.snapshot().version());
+            data.put("snapshotAt", page.snapshot().builtAt());
+            data.put("totalKeys", page.snapshot().keys().length);
+            return ResponseEntity.ok(new ApiResponse("success", "Keys fetched", data));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new ApiResponse("error", e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity.status(500).body(new ApiResponse("error", e.getMessage()));
         }
     }
 
+    @GetMapping("/{token}/{key}")
+    public CompletableFuture<ResponseEntity<ApiResponse>> getValue(@AuthenticationPrincipal User user, HttpServletRequest request,
+            @PathVariable("token") String token, @PathVariable("key") String key) {
+        AccessResult access = storeAccessService.checkAccess(user, token);
+        if (!access.allowed)
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.status(403).body(new ApiResponse("error", access.errorMessage)));
+        String keyError = validateKey(key);
+        if (keyError != null)
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(new ApiResponse("error", keyError)));
+        ResponseEntity<ApiResponse> limited = rateLimited(request, token, 1);
+        if (limited != null)
+            return CompletableFuture.completedFuture(limited);
+        String buffered = writeBehindBuffer.lookup(token, key);
+        if (buffered != null)
+            return CompletableFuture.completedFuture(toGetResponse(buffered));
+        String cached = valueCache.get(token, key);
+        if (cached != null)
+            return CompletableFuture.completedFuture(toGetResponse(cached));
+        long ticket = valueCache.beginLoad(token, key);
+        return kvsppTcpClientService.sendAsync(token, "GET", key, null).handle((output, error) -> {
+            if (error != null) {
+                return ResponseEntity.status(500).body(new ApiResponse("error", backendErrorMessage(error)));
+            }
+            valueCache.put(token, key, output, ticket);
+            return toGetResponse(output);
+        });
+    }
+
+    private static ResponseEntity<ApiResponse> toGetResponse(String output) {
+        if (output != null && output.startsWith("VALUE ")) {
+            String value = output.substring(6);
+            return ResponseEntity.ok(new ApiResponse("success", "Value fetched", Map.of("value", value)));
+        } else if ("NOT_FOUND".equals(output)) {
+            return ResponseEntity.ok(new ApiResponse("success", "Key not found", Collections.singletonMap("value", null)));
+        } else if (output != null && output.startsWith("ERROR")) {
+            return ResponseEntity.status(400).body(new ApiResponse("error", output));
+        } else {
+            return ResponseEntity.status(500).body(new ApiResponse("error", "Unexpected response: " + output));
+        }
+    }
+
     @PutMapping("/{token}/{key}")
-    public ResponseEntity<ApiResponse> putValue(@AuthenticationPrincipal User user,
+    public CompletableFuture<ResponseEntity<ApiResponse>> putValue(@AuthenticationPrincipal User user, HttpServletRequest request,
             @PathVariable("token") String token, @PathVariable("key") String key,
             @RequestBody Map<String, String> body) {
         AccessResult access = storeAccessService.checkAccess(user, token);
         if (!access.allowed)
-            return ResponseEntity.status(403).body(new ApiResponse("error", access.errorMessage));
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.status(403).body(new ApiResponse("error", access.errorMessage)));
+        String keyError = validateKey(key);
+        if (keyError != null)
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(new ApiResponse("error", keyError)));
         String value = body.get("value");
         if (value == null)
-            return ResponseEntity.badRequest().body(new ApiResponse("error", "Missing value"));
-        try {
-            String output = kvsppTcpClientService.sendCommand(token, "SET " + key + " " + value);
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.badRequest().body(new ApiResponse("error", "Missing value")));
+        if (!KvsppLineCodec.isSingleLine(value))
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.badRequest().body(new ApiResponse("error", "Value must be a single-line string")));
+        ResponseEntity<ApiResponse> limited = rateLimited(request, token, 1);
+        if (limited != null)
+            return CompletableFuture.completedFuture(limited);
+        valueCache.invalidate(token, key);
+        if (writeBehindBuffer.isEnabled(token)) {
+            writeBehindBuffer.set(token, key, value);
+            return CompletableFuture.completedFuture(ResponseEntity.ok(new ApiResponse("success", "Value stored")));
+        }
+        return kvsppTcpClientService.sendAsync(token, "SET", key, value).handle((output, error) -> {
+            valueCache.invalidate(token, key);
+            if (error != null) {
+                return ResponseEntity.status(500).body(new ApiResponse("error", backendErrorMessage(error)));
+            }
             if ("OK".equals(output)) {
                 return ResponseEntity.ok(new ApiResponse("success", "Value stored"));
             } else if (output != null && output.startsWith("ERROR")) {
@@ -362,19 +613,32 @@ public class StoreController {
             } else {
                 return ResponseEntity.status(500).body(new ApiResponse("error", "Unexpected response: " + output));
             }
-        } catch (Exception e) {
-            return ResponseEntity.status(500).body(new ApiResponse("error", e.getMessage()));
-        }
+        });
     }
 
     @DeleteMapping("/{token}/{key}")
-    public ResponseEntity<ApiResponse> deleteValue(@AuthenticationPrincipal User user,
+    public CompletableFuture<ResponseEntity<ApiResponse>> deleteValue(@AuthenticationPrincipal User user, HttpServletRequest request,
             @PathVariable("token") String token, @PathVariable("key") String key) {
         AccessResult access = storeAccessService.checkAccess(user, token);
         if (!access.allowed)
-            return ResponseEntity.status(403).body(new ApiResponse("error", access.errorMessage));
-        try {
-            String output = kvsppTcpClientService.sendCommand(token, "DELETE " + key);
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.status(403).body(new ApiResponse("error", access.errorMessage)));
+        String keyError = validateKey(key);
+        if (keyError != null)
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(new ApiResponse("error", keyError)));
+        ResponseEntity<ApiResponse> limited = rateLimited(request, token, 1);
+        if (limited != null)
+            return CompletableFuture.completedFuture(limited);
+        valueCache.invalidate(token, key);
+        if (writeBehindBuffer.isEnabled(token)) {
+            writeBehindBuffer.delete(token, key);
+            return CompletableFuture.completedFuture(ResponseEntity.ok(new ApiResponse("success", "Key deleted")));
+        }
+        return kvsppTcpClientService.sendAsync(token, "DELETE", key, null).handle((output, error) -> {
+            valueCache.invalidate(token, key);
+            if (error != null) {
+                return ResponseEntity.status(500).body(new ApiResponse("error", backendErrorMessage(error)));
+            }
             if ("OK".equals(output)) {
                 return ResponseEntity.ok(new ApiResponse("success", "Key deleted"));
             } else if (output != null && output.startsWith("ERROR")) {
@@ -382,9 +646,215 @@ public class StoreController {
             } else {
                 return ResponseEntity.status(500).body(new ApiResponse("error", "Unexpected response: " + output));
             }
-        } catch (Exception e) {
-            return ResponseEntity.status(500).body(new ApiResponse("error", e.getMessage()));
+        });
+    }
+
+    // --- Batch endpoints: one access check, all commands pipelined on the store's connection ---
+
+    @PostMapping("/{token}/mget")
+    public CompletableFuture<ResponseEntity<ApiResponse>> getValues(@AuthenticationPrincipal User user, HttpServletRequest request,
+            @PathVariable("token") String token, @RequestBody Map<String, Object> body) {
+        AccessResult access = storeAccessService.checkAccess(user, token);
+        if (!access.allowed)
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.status(403).body(new ApiResponse("error", access.errorMessage)));
+        List<String> keys = new ArrayList<>();
+        String error = readBatchKeys(body, keys);
+        if (error != null)
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(new ApiResponse("error", error)));
+        List<KvsppCommand> commands = keys.stream().map(KvsppCommand::get).collect(Collectors.toList());
+        ResponseEntity<ApiResponse> limited = rateLimited(request, token, commands.size());
+        if (limited != null)
+            return CompletableFuture.completedFuture(limited);
+        return runBatch(token, commands, "Values fetched", StoreController::getStatus);
+    }
+
+    @PostMapping("/{token}/mset")
+    public CompletableFuture<ResponseEntity<ApiResponse>> putValues(@AuthenticationPrincipal User user, HttpServletRequest request,
+            @PathVariable("token") String token, @RequestBody Map<String, Object> body) {
+        AccessResult access = storeAccessService.checkAccess(user, token);
+        if (!access.allowed)
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.status(403).body(new ApiResponse("error", access.errorMessage)));
+        if (!(body.get("entries") instanceof Map<?, ?> entries) || entries.isEmpty())
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest()
+                    .body(new ApiResponse("error", "Missing 'entries' object of key/value pairs")));
+        if (entries.size() > maxBatchKeys)
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest()
+                    .body(new ApiResponse("error", "Too many keys in one batch (max " + maxBatchKeys + ")")));
+        List<KvsppCommand> commands = new ArrayList<>();
+        for (Map.Entry<?, ?> entry : entries.entrySet()) {
+            String key = String.valueOf(entry.getKey());
+            String keyError = validateKey(key);
+            if (keyError != null)
+                return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(new ApiResponse("error", keyError)));
+            if (!(entry.getValue() instanceof String value) || !KvsppLineCodec.isSingleLine(value))
+                return CompletableFuture.completedFuture(ResponseEntity.badRequest()
+                        .body(new ApiResponse("error", "Value for key '" + key + "' must be a single-line string")));
+            commands.add(KvsppCommand.set(key, value));
         }
+        ResponseEntity<ApiResponse> limited = rateLimited(request, token, commands.size());
+        if (limited != null)
+            return CompletableFuture.completedFuture(limited);
+        return runBatch(token, commands, "Values stored", StoreController::putStatus);
+    }
+
+    @PostMapping("/{token}/mdelete")
+    public CompletableFuture<ResponseEntity<ApiResponse>> deleteValues(@AuthenticationPrincipal User user, HttpServletRequest request,
+            @PathVariable("token") String token, @RequestBody Map<String, Object> body) {
+        AccessResult access = storeAccessService.checkAccess(user, token);
+        if (!access.allowed)
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.status(403).body(new ApiResponse("error", access.errorMessage)));
+        List<String> keys = new ArrayList<>();
+        String error = readBatchKeys(body, keys);
+        if (error != null)
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(new ApiResponse("error", error)));
+        List<KvsppCommand> commands = keys.stream().map(KvsppCommand::delete).collect(Collectors.toList());
+        ResponseEntity<ApiResponse> limited = rateLimited(request, token, commands.size());
+        if (limited != null)
+            return CompletableFuture.completedFuture(limited);
+        return runBatch(token, commands, "Keys deleted", StoreController::putStatus);
+    }
+
+    // Checked after the access check, so only a store's own users can use up its budget. Batches
+    // cost one token per key.
+    private ResponseEntity<ApiResponse> rateLimited(HttpServletRequest request, String token, int cost) {
+        long waitNanos = rateLimiter.acquire(request.getRemoteAddr(), token, cost, RequestRateLimiter.REST);
+        if (waitNanos == 0)
+            return null;
+        long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999));
+        return ResponseEntity.status(429)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter))
+                .body(new ApiResponse("error", "Too many requests"));
+    }
+
+    private static void getStatus(Map<String, Object> result, String output) {
+        if (output.startsWith("VALUE ")) {
+            result.put("status", "OK");
+            result.put("value", output.substring(6));
+        } else if ("NOT_FOUND".equals(output)) {
+            result.put("status", "NOT_FOUND");
+            result.put("value", null);
+        } else {
+            result.put("status", "ERROR");
+            result.put("error", output);
+        }
+    }
+
+    private static void putStatus(Map<String, Object> result, String output) {
+        if ("OK".equals(output)) {
+            result.put("status", "OK");
+        } else if ("NOT_FOUND".equals(output)) {
+            result.put("status", "NOT_FOUND");
+        } else {
+            result.put("status", "ERROR");
+            result.put("error", output);
+        }
+    }
+
+    private CompletableFuture<ResponseEntity<ApiResponse>> runBatch(String token, List<KvsppCommand> commands,
+            String message, java.util.function.BiConsumer<Map<String, Object>, String> resultMapper) {
+        // Cached GETs and buffered writes are answered locally; everything else goes to the backend
+        List<CompletableFuture<String>> replies = new ArrayList<>(Collections.nCopies(commands.size(), null));
+        List<Integer> sentIndexes = new ArrayList<>();
+        List<KvsppCommand> sentCommands = new ArrayList<>();
+        long[] tickets = new long[commands.size()];
+        boolean writeBehind = writeBehindBuffer.isEnabled(token);
+        for (int i = 0; i < commands.size(); i++) {
+            KvsppCommand command = commands.get(i);
+            String key = command.key();
+            if ("GET".equals(command.command())) {
+                String cached = writeBehindBuffer.lookup(token, key);
+                if (cached == null) {
+                    cached = valueCache.get(token, key);
+                }
+                if (cached != null) {
+                    replies.set(i, CompletableFuture.completedFuture(cached));
+                    continue;
+                }
+                tickets[i] = valueCache.beginLoad(token, key);
+            } else {
+                valueCache.invalidate(token, key);
+                if (writeBehind) {
+                    if (command.value() != null) {
+                        writeBehindBuffer.set(token, key, command.value());
+                    } else {
+                        writeBehindBuffer.delete(token, key);
+                    }
+                    replies.set(i, CompletableFuture.completedFuture("OK"));
+                    continue;
+                }
+            }
+            sentIndexes.add(i);
+            sentCommands.add(command);
+        }
+        List<CompletableFuture<String>> sent = sentCommands.isEmpty()
+                ? List.of() : kvsppTcpClientService.sendBatchAsync(token, sentCommands);
+        for (int j = 0; j < sent.size(); j++) {
+            int i = sentIndexes.get(j);
+            KvsppCommand command = commands.get(i);
+            replies.set(i, sent.get(j).whenComplete((output, error) -> {
+                if ("GET".equals(command.command())) {
+                    valueCache.put(token, command.key(), error == null ? output : null, tickets[i]);
+                } else {
+                    valueCache.invalidate(token, command.key());
+                }
+            }));
+        }
+        return CompletableFuture.allOf(replies.toArray(new CompletableFuture[0])).handle((ignored, failure) -> {
+            List<Map<String, Object>> results = new ArrayList<>(commands.size());
+            for (int i = 0; i < commands.size(); i++) {
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("key", commands.get(i).key());
+                CompletableFuture<String> reply = replies.get(i);
+                if (reply.isCompletedExceptionally()) {
+                    result.put("status", "ERROR");
+                    result.put("error", backendErrorMessage(reply.exceptionNow()));
+                } else {
+                    String output = reply.join();
+                    resultMapper.accept(result, output != null ? output : "");
+                }
+                results.add(result);
+            }
+            return ResponseEntity.ok(new ApiResponse("success", message, Map.of("results", results)));
+        });
+    }
+
+    private String readBatchKeys(Map<String, Object> body, List<String> keys) {
+        if (!(body.get("keys") instanceof List<?> list) || list.isEmpty()) {
+            return "Missing 'keys' array";
+        }
+        if (list.size() > maxBatchKeys) {
+            return "Too many keys in one batch (max " + maxBatchKeys + ")";
+        }
+        for (Object item : list) {
+            String key = item == null ? null : item.toString();
+            String keyError = validateKey(key);
+            if (keyError != null) {
+                return keyError;
+            }
+            keys.add(key);
+        }
+        return null;
+    }
+
+    // Keys travel as a single protocol token, so whitespace would split or inject commands
+    private static String validateKey(String key) {
+        if (key == null || key.isBlank()) {
+            return "Keys must be non-empty strings";
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (Character.isWhitespace(key.charAt(i))) {
+                return "Key '" + key + "' must not contain whitespace";
+            }
+        }
+        return null;
+    }
+
+    private static String backendErrorMessage(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause.getMessage();
     }
 
     @PostMapping("/{token}/save")
@@ -396,6 +866,7 @@ public class StoreController {
         String filename = token;
         try {
             String cmd = (filename != null && !filename.isBlank()) ? "SAVE " + filename : "SAVE";
+            writeBehindBuffer.flushAndWait(token);
             String output = kvsppTcpClientService.sendCommand(token, cmd);
             if ("OK".equals(output)) {
                 return ResponseEntity.ok(new ApiResponse("success", "Store saved"));
@@ -418,7 +889,13 @@ public class StoreController {
         String filename = token;
         try {
             String cmd = (filename != null && !filename.isBlank()) ? "LOAD " + filename : "LOAD";
-            String output = kvsppTcpClientService.sendCommand(token, cmd);
+            writeBehindBuffer.flushAndWait(token);
+            String output;
+            try {
+                output = kvsppTcpClientService.sendCommand(token, cmd);
+            } finally {
+                valueCache.invalidateStore(token);
+            }
             if ("OK".equals(output)) {
                 return ResponseEntity.ok(new ApiResponse("success", "Store loaded"));
             } else if (output != null && output.startsWith("ERROR")) {
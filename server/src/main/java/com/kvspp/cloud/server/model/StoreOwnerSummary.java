@@ -0,0 +1,6 @@
+package com.kvspp.cloud.server.model;
+
+import java.util.UUID;
+
+// One owner of one store, as shown in a store listing
+public record StoreOwnerSummary(String storeToken, UUID id, String email, String name) {}
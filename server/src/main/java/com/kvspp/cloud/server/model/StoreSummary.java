@@ -0,0 +1,6 @@
+package com.kvspp.cloud.server.model;
+
+import java.time.Instant;
+
+// The store columns shown in a store listing, without the entity graph
+public record StoreSummary(String token, String name, String description, Instant createdAt) {}
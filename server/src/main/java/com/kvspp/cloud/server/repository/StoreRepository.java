@@ -1,10 +1,16 @@
 package com.kvspp.cloud.server.repository;
 
 import com.kvspp.cloud.server.model.Store;
+import com.kvspp.cloud.server.model.StoreOwnerSummary;
+import com.kvspp.cloud.server.model.StoreSummary;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
 
 public interface StoreRepository extends JpaRepository<Store, UUID> {
@@ -12,4 +18,27 @@ public interface StoreRepository extends JpaRepository<Store, UUID> {
 
     @Query("SELECT s FROM Store s LEFT JOIN FETCH s.owners WHERE s.token = :token")
     Store findByTokenWithOwners(@Param("token") String token);
+
+    // One row per owner, a single null row for a store without owners, no rows if there is no such store
+    @Query("SELECT u.id FROM Store s LEFT JOIN s.owners u WHERE s.token = :token")
+    List<UUID> findOwnerIdsByToken(@Param("token") String token);
+
+    // Keyset page of a user's stores in (createdAt, token) order, starting after the given pair
+    @Query("SELECT new com.kvspp.cloud.server.model.StoreSummary(s.token, s.name, s.description, s.createdAt) " +
+           "FROM User u JOIN u.stores s " +
+           "WHERE u.id = :userId " +
+           "AND (s.createdAt > :afterCreatedAt OR (s.createdAt = :afterCreatedAt AND s.token > :afterToken)) " +
+           "ORDER BY s.createdAt, s.token")
+    List<StoreSummary> findSummariesByOwner(@Param("userId") UUID userId,
+                                            @Param("afterCreatedAt") Instant afterCreatedAt,
+                                            @Param("afterToken") String afterToken,
+                                            Limit limit);
+
+    @Query("SELECT new com.kvspp.cloud.server.model.StoreOwnerSummary(s.token, o.id, o.email, o.name) " +
+           "FROM Store s JOIN s.owners o " +
+           "WHERE s.token IN :tokens")
+    List<StoreOwnerSummary> findOwnerSummaries(@Param("tokens") Collection<String> tokens);
+
+    @Query("SELECT s.token FROM Store s")
+    List<String> findAllTokens();
 }
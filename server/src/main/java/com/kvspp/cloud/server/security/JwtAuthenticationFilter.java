@@ -1,12 +1,16 @@
 package com.kvspp.cloud.server.security;
 
-import com.kvspp.cloud.server.repository.UserRepository;
 import com.kvspp.cloud.server.model.User;
+import com.kvspp.cloud.server.service.UserPrincipalCache;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
@@ -14,8 +18,9 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
-import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 @Component
@@ -25,7 +30,18 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     private JwtUtil jwtUtil;
 
     @Autowired
-    private UserRepository userRepository;
+    private UserPrincipalCache principalCache;
+
+    @Autowired
+    private ObservationRegistry observationRegistry;
+
+    // Users allowed to run operator actions such as adding backends
+    @Value("${kvspp.admin.emails:}")
+    private Set<String> adminEmails;
+
+    private static final List<GrantedAuthority> USER_AUTHORITIES = List.of(new SimpleGrantedAuthority("ROLE_USER"));
+    private static final List<GrantedAuthority> ADMIN_AUTHORITIES =
+            List.of(new SimpleGrantedAuthority("ROLE_USER"), new SimpleGrantedAuthority("ROLE_ADMIN"));
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
@@ -35,64 +51,81 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         String authHeader = request.getHeader("Authorization");
 
         // Log the request details
-        logger.info("=== JWT Filter - Request to: " + request.getRequestURI());
-        logger.info("Authorization Header: " + (authHeader != null ? "Present (length: " + authHeader.length() + ")" : "MISSING"));
+        logger.debug("=== JWT Filter - Request to: " + request.getRequestURI());
+        logger.debug("Authorization Header: " + (authHeader != null ? "Present (length: " + authHeader.length() + ")" : "MISSING"));
 
         // Check for token in Authorization header first
         if (authHeader != null && authHeader.startsWith("Bearer ")) {
             token = authHeader.substring(7);
-            logger.info("Token extracted from header (first 20 chars): " + (token.length() > 20 ? token.substring(0, 20) + "..." : token));
+            logger.debug("Token extracted from header (first 20 chars): " + (token.length() > 20 ? token.substring(0, 20) + "..." : token));
         }
         // For WebSocket connections, check query parameter
         else if (request.getRequestURI().startsWith("/ws/")) {
             String queryToken = request.getParameter("token");
             if (queryToken != null && !queryToken.isEmpty()) {
                 token = queryToken;
-                logger.info("Token extracted from query parameter (first 20 chars): " + (token.length() > 20 ? token.substring(0, 20) + "..." : token));
+                logger.debug("Token extracted from query parameter (first 20 chars): " + (token.length() > 20 ? token.substring(0, 20) + "..." : token));
             }
         }
 
         if (token != null) {
-            logger.info("Token length: " + token.length());
+            logger.debug("Token length: " + token.length());
 
             try {
-                if (jwtUtil.validateToken(token)) {
-                    logger.info("✓ Token validation SUCCESS");
-                    String userId = jwtUtil.extractUserId(token);
-                    logger.info("Extracted userId: " + userId);
-
-                    // Load user from database WITH stores eagerly fetched
-                    Optional<User> userOptional = userRepository.findByIdWithStores(UUID.fromString(userId));
+                Observation jwtObservation = Observation.start("kvspp.request.jwt", observationRegistry);
+                String userId;
+                try {
+                    userId = jwtUtil.validateAndExtractUserId(token);
+                } catch (RuntimeException e) {
+                    jwtObservation.error(e);
+                    throw e;
+                } finally {
+                    jwtObservation.stop();
+                }
+                if (userId != null) {
+                    logger.debug("✓ Token validation SUCCESS");
+                    logger.debug("Extracted userId: " + userId);
+
+                    // Load user WITH stores eagerly fetched, from the principal cache when possible
+                    Observation lookupObservation = Observation.start("kvspp.request.user-lookup", observationRegistry);
+                    Optional<User> userOptional;
+                    try {
+                        userOptional = principalCache.find(UUID.fromString(userId));
+                    } catch (RuntimeException e) {
+                        lookupObservation.error(e);
+                        throw e;
+                    } finally {
+                        lookupObservation.stop();
+                    }
 
                     if (userOptional.isPresent()) {
                         User user = userOptional.get();
-                        logger.info("✓ User found in database: " + user.getEmail());
+                        logger.debug("✓ User found in database: " + user.getEmail());
 
                         // Create authentication token
                         UsernamePasswordAuthenticationToken authentication =
                             new UsernamePasswordAuthenticationToken(
                                 user,
                                 null,
-                                Collections.singletonList(new SimpleGrantedAuthority("ROLE_USER"))
+                                adminEmails.contains(user.getEmail()) ? ADMIN_AUTHORITIES : USER_AUTHORITIES
                             );
 
                         SecurityContextHolder.getContext().setAuthentication(authentication);
-                        logger.info("✓ Authentication set in SecurityContext");
+                        logger.debug("✓ Authentication set in SecurityContext");
                     } else {
                         logger.error("✗ User NOT found in database for userId: " + userId);
                     }
                 } else {
-                    logger.error("✗ Token validation FAILED");
+                    logger.warn("✗ Token validation FAILED");
                 }
             } catch (Exception e) {
                 // Invalid token - continue without authentication
-                logger.error("✗ JWT validation exception: " + e.getClass().getName() + " - " + e.getMessage());
-                e.printStackTrace();
+                logger.error("✗ JWT validation exception: " + e.getClass().getName() + " - " + e.getMessage(), e);
             }
         } else if (authHeader != null) {
             logger.warn("Authorization header present but doesn't start with 'Bearer ': " + authHeader.substring(0, Math.min(20, authHeader.length())));
         } else {
-            logger.info("No Authorization header - skipping JWT authentication");
+            logger.debug("No Authorization header - skipping JWT authentication");
         }
 
         filterChain.doFilter(request, response);
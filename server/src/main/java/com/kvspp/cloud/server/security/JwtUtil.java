@@ -1,9 +1,13 @@
 package com.kvspp.cloud.server.security;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.slf4j.Logger;
@@ -11,9 +15,15 @@ import org.slf4j.LoggerFactory;
 
 import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 @Component
@@ -27,9 +37,38 @@ public class JwtUtil {
     @Value("${jwt.expiration}")
     private Long expiration;
 
-    private SecretKey getSigningKey() {
-        byte[] keyBytes = secret.getBytes(StandardCharsets.UTF_8);
-        return Keys.hmacShaKeyFor(keyBytes);
+    @Value("${jwt.cache.max-entries:10000}")
+    private int cacheMaxEntries;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Timer validTimer;
+    private Timer invalidTimer;
+    private Timer cachedTimer;
+
+    // Built once; both are immutable and safe to share between request threads
+    private SecretKey signingKey;
+    private JwtParser parser;
+
+    // Verified tokens by SHA-256 digest, so the raw tokens are not kept around
+    private final ConcurrentHashMap<String, VerifiedToken> verified = new ConcurrentHashMap<>();
+
+    private record VerifiedToken(String userId, long expiresAt) {}
+
+    @PostConstruct
+    public void init() {
+        validTimer = Timer.builder("kvspp.jwt.validation").tag("outcome", "valid")
+                .publishPercentileHistogram().register(meterRegistry);
+        invalidTimer = Timer.builder("kvspp.jwt.validation").tag("outcome", "invalid")
+                .publishPercentileHistogram().register(meterRegistry);
+        cachedTimer = Timer.builder("kvspp.jwt.validation").tag("outcome", "cached")
+                .publishPercentileHistogram().register(meterRegistry);
+        signingKey = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+        parser = Jwts.parser().verifyWith(signingKey).build();
+        // jjwt looks up its JSON serializer and deserializer through a ServiceLoader on first use,
+        // and concurrent first lookups can fail with NoSuchElementException. Do it once up front.
+        parser.parseSignedClaims(generateToken("warmup", null, null));
     }
 
     public String generateToken(String userId, String email, String name) {
@@ -43,10 +82,43 @@ public class JwtUtil {
                 .subject(userId)
                 .issuedAt(new Date(System.currentTimeMillis()))
                 .expiration(new Date(System.currentTimeMillis() + expiration))
-                .signWith(getSigningKey())
+                .signWith(signingKey)
                 .compact();
     }
 
+    // Verifies the token and returns its subject, or null if it is invalid or expired.
+    // Tokens seen before are answered from the cache until they expire.
+    public String validateAndExtractUserId(String token) {
+        long start = System.nanoTime();
+        String digest = digest(token);
+        VerifiedToken cached = verified.get(digest);
+        if (cached != null) {
+            if (System.currentTimeMillis() < cached.expiresAt()) {
+                cachedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                return cached.userId();
+            }
+            verified.remove(digest);
+        }
+        String userId = null;
+        try {
+            Claims claims = parser.parseSignedClaims(token).getPayload();
+            // The parser rejects expired tokens; tokens without an expiry are not accepted
+            if (claims.getExpiration() != null && claims.getSubject() != null) {
+                userId = claims.getSubject();
+                cache(digest, new VerifiedToken(userId, claims.getExpiration().getTime()));
+            }
+        } catch (Exception e) {
+            logger.debug("✗ Token validation failed: " + e.getClass().getName() + " - " + e.getMessage());
+        } finally {
+            (userId != null ? validTimer : invalidTimer).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        return userId;
+    }
+
+    public Boolean validateToken(String token) {
+        return validateAndExtractUserId(token) != null;
+    }
+
     public String extractUserId(String token) {
         return extractClaim(token, Claims::getSubject);
     }
@@ -69,38 +141,38 @@ public class JwtUtil {
     }
 
     private Claims extractAllClaims(String token) {
-        logger.info("Parsing JWT token...");
         try {
-            Claims claims = Jwts.parser()
-                    .verifyWith(getSigningKey())
-                    .build()
-                    .parseSignedClaims(token)
-                    .getPayload();
-            logger.info("✓ Token parsed successfully. Subject: " + claims.getSubject());
-            logger.info("Token expiration: " + claims.getExpiration());
-            return claims;
+            return parser.parseSignedClaims(token).getPayload();
         } catch (Exception e) {
-            logger.error("✗ Failed to parse token: " + e.getClass().getName() + " - " + e.getMessage());
+            logger.debug("✗ Failed to parse token: " + e.getClass().getName() + " - " + e.getMessage());
             throw e;
         }
     }
 
-    private Boolean isTokenExpired(String token) {
-        Date expiration = extractExpiration(token);
-        boolean expired = expiration.before(new Date());
-        logger.info("Token expiration check: " + (expired ? "EXPIRED" : "VALID") + " (expires: " + expiration + ")");
-        return expired;
+    private void cache(String digest, VerifiedToken token) {
+        if (verified.size() >= cacheMaxEntries) {
+            // Drop expired entries first, then arbitrary ones down to 90% so the scan is not repeated
+            // on every insert while the cache is full
+            long now = System.currentTimeMillis();
+            verified.values().removeIf(entry -> entry.expiresAt() <= now);
+            int target = cacheMaxEntries - Math.max(1, cacheMaxEntries / 10);
+            Iterator<String> keys = verified.keySet().iterator();
+            while (verified.size() > target && keys.hasNext()) {
+                keys.next();
+                keys.remove();
+            }
+        }
+        if (cacheMaxEntries > 0) {
+            verified.put(digest, token);
+        }
     }
 
-    public Boolean validateToken(String token) {
-        logger.info("Validating JWT token...");
+    private static String digest(String token) {
         try {
-            boolean valid = !isTokenExpired(token);
-            logger.info("Token validation result: " + (valid ? "VALID" : "EXPIRED"));
-            return valid;
-        } catch (Exception e) {
-            logger.error("✗ Token validation failed: " + e.getClass().getName() + " - " + e.getMessage());
-            return false;
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
     }
 }
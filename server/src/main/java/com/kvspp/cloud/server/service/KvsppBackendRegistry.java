@@ -0,0 +1,177 @@
+package com.kvspp.cloud.server.service;
+
+import com.kvspp.cloud.server.tcp.ConsistentHashRing;
+import com.kvspp.cloud.server.tcp.KvsppBackend;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Decides which KVS++ instance owns a store. Stores are spread over kvspp.tcp.backends by
+// consistent hashing; a store that is being moved stays pinned to its old backend until
+// its data has been copied. While the copy runs the store is fenced: commands for it are
+// held and sent, in order, once the store is routed to wherever it ended up.
+@Service
+public class KvsppBackendRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(KvsppBackendRegistry.class);
+
+    @Value("${kvspp.tcp.backends:}")
+    private List<String> backendSpecs;
+
+    @Value("${kvspp.tcp.host:localhost}")
+    private String defaultHost;
+
+    @Value("${kvspp.tcp.port:5555}")
+    private int defaultPort;
+
+    @Value("${kvspp.tcp.virtual-nodes:160}")
+    private int virtualNodes;
+
+    // Commands held per moving store, like the queue of a pipelined connection
+    @Value("${kvspp.tcp.pipeline.max-pending:10000}")
+    private int maxHeld;
+
+    private volatile ConsistentHashRing ring;
+    private final ConcurrentHashMap<String, KvsppBackend> pinned = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Fence> fences = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        List<KvsppBackend> backends = new ArrayList<>();
+        for (String spec : backendSpecs) {
+            if (!spec.isBlank()) {
+                backends.add(KvsppBackend.parse(spec));
+            }
+        }
+        if (backends.isEmpty()) {
+            backends.add(new KvsppBackend(defaultHost, defaultPort));
+        }
+        ring = new ConsistentHashRing(backends, virtualNodes);
+        logger.info("KVS++ backends: " + backends);
+    }
+
+    public KvsppBackend backendFor(String storeToken) {
+        KvsppBackend pin = pinned.get(storeToken);
+        return pin != null ? pin : ring.nodeFor(storeToken);
+    }
+
+    public ConsistentHashRing getRing() {
+        return ring;
+    }
+
+    public List<KvsppBackend> getBackends() {
+        return ring.getNodes();
+    }
+
+    public Map<String, KvsppBackend> getPinned() {
+        return Map.copyOf(pinned);
+    }
+
+    // Pins must be in place before the new ring so no request sees the store on its new
+    // backend before the data is there
+    void installRing(ConsistentHashRing next, Map<String, KvsppBackend> pins) {
+        pinned.putAll(pins);
+        ring = next;
+    }
+
+    void unpin(String storeToken) {
+        pinned.remove(storeToken);
+    }
+
+    public boolean isFenced(String storeToken) {
+        return !fences.isEmpty() && fences.containsKey(storeToken);
+    }
+
+    // Holds the task until the store's fence is lifted; returns false if there is no fence and
+    // the caller should run it now
+    public boolean holdWhileFenced(String storeToken, Runnable task) throws IOException {
+        Fence fence = fences.get(storeToken);
+        return fence != null && fence.hold(task, maxHeld);
+    }
+
+    // For blocking callers: waits until the store is not fenced
+    public void awaitUnfenced(String storeToken, long timeoutMs) throws IOException {
+        Fence fence = fences.get(storeToken);
+        if (fence == null) {
+            return;
+        }
+        try {
+            fence.lifted.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out waiting for store " + storeToken + " to finish moving", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for store " + storeToken + " to finish moving", e);
+        }
+    }
+
+    void fence(String storeToken) {
+        fences.put(storeToken, new Fence());
+    }
+
+    // Call after unpin (or after giving up), so held commands are routed to the right backend
+    void lift(String storeToken) {
+        Fence fence = fences.remove(storeToken);
+        if (fence != null) {
+            fence.lift();
+        }
+    }
+
+    private static final class Fence {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final List<Runnable> held = new ArrayList<>();
+        private final CompletableFuture<Void> lifted = new CompletableFuture<>();
+        private boolean open;
+
+        boolean hold(Runnable task, int maxHeld) throws IOException {
+            lock.lock();
+            try {
+                if (open) {
+                    return false;
+                }
+                if (held.size() >= maxHeld) {
+                    throw new IOException("Too many commands waiting for the store to finish moving");
+                }
+                held.add(task);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Held tasks only queue commands, so they run under the lock; nothing sent after the
+        // lift can overtake them
+        void lift() {
+            lock.lock();
+            try {
+                open = true;
+                for (Runnable task : held) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        logger.warn("Command held during a store move failed: " + e.getMessage());
+                    }
+                }
+                held.clear();
+            } finally {
+                lock.unlock();
+            }
+            lifted.complete(null);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.kvspp.cloud.server.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Timers for every command sent to KVS++, by command type and outcome (ok, error reply,
+// failure), both in aggregate and per store. Only the first max-store-tags stores get their
+// own tag; later ones are counted under store="other" so the series count stays bounded.
+@Service
+public class KvsppCommandMetrics {
+
+    private static final String[] COMMAND_TYPES = {"GET", "SET", "DELETE", "SELECT", "JSON", "SAVE", "LOAD", "AUTOSAVE"};
+    private static final String OTHER = "other";
+
+    @Value("${kvspp.metrics.max-store-tags:100}")
+    private int maxStoreTags;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ObservationRegistry observationRegistry;
+
+    private final ConcurrentHashMap<String, String> storeTags = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<TimerKey, Timer> timers = new ConcurrentHashMap<>();
+
+    private record TimerKey(String store, String command, String outcome) {}
+
+    // Records the command when the reply future completes. The returned future completes after
+    // recording, so a request traced through it never ends before its backend stage does.
+    public CompletableFuture<String> track(String storeToken, String command, CompletableFuture<String> reply) {
+        long start = System.nanoTime();
+        Observation span = startSpan(command);
+        return reply.whenComplete((output, error) -> record(storeToken, command, start, span, output, error));
+    }
+
+    // Starts a kvspp.request.backend span when called within a traced request, otherwise returns null
+    public Observation startSpan(String command) {
+        if (observationRegistry.getCurrentObservation() == null) {
+            return null;
+        }
+        return Observation.createNotStarted("kvspp.request.backend", observationRegistry)
+                .lowCardinalityKeyValue("command", commandType(command))
+                .start();
+    }
+
+    // output is the reply line, or null if the reply was streamed; error is set if the call failed
+    public void record(String storeToken, String command, long startNanos, Observation span, String output,
+                       Throwable error) {
+        if (span != null) {
+            if (error != null) {
+                span.error(error);
+            }
+            span.stop();
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        String type = commandType(command);
+        String outcome = error != null ? "failure" : output != null && output.startsWith("ERROR") ? "error" : "ok";
+        timer(null, type, outcome).record(elapsed, TimeUnit.NANOSECONDS);
+        timer(storeTag(storeToken), type, outcome).record(elapsed, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer timer(String store, String command, String outcome) {
+        return timers.computeIfAbsent(new TimerKey(store, command, outcome), key -> key.store() == null
+                ? Timer.builder("kvspp.backend.commands")
+                        .description("Commands sent to KVS++")
+                        .tag("command", key.command())
+                        .tag("outcome", key.outcome())
+                        .publishPercentileHistogram()
+                        .register(meterRegistry)
+                : Timer.builder("kvspp.backend.store.commands")
+                        .description("Commands sent to KVS++, per store")
+                        .tag("store", key.store())
+                        .tag("command", key.command())
+                        .tag("outcome", key.outcome())
+                        .register(meterRegistry));
+    }
+
+    private String storeTag(String storeToken) {
+        if (storeToken == null) {
+            return OTHER;
+        }
+        String tag = storeTags.get(storeToken);
+        if (tag != null) {
+            return tag;
+        }
+        if (storeTags.size() >= maxStoreTags) {
+            return OTHER;
+        }
+        return storeTags.computeIfAbsent(storeToken, t -> t);
+    }
+
+    public static String commandType(String command) {
+        if (command == null) {
+            return OTHER;
+        }
+        int start = 0;
+        while (start < command.length() && command.charAt(start) == ' ') {
+            start++;
+        }
+        int end = command.indexOf(' ', start);
+        int length = (end < 0 ? command.length() : end) - start;
+        for (String type : COMMAND_TYPES) {
+            if (type.length() == length && command.regionMatches(true, start, type, 0, length)) {
+                return type;
+            }
+        }
+        return OTHER;
+    }
+}
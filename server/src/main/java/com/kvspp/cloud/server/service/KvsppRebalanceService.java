@@ -0,0 +1,164 @@
+package com.kvspp.cloud.server.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kvspp.cloud.server.repository.StoreRepository;
+import com.kvspp.cloud.server.tcp.ConsistentHashRing;
+import com.kvspp.cloud.server.tcp.KvsppBackend;
+import com.kvspp.cloud.server.tcp.KvsppCommand;
+import com.kvspp.cloud.server.tcp.PipelinedKvsppConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Adds backends to the hash ring and moves the stores that now hash to them: the store is
+// dumped with JSON on its old backend and replayed as SET/AUTOSAVE commands on the new one.
+// Commands for a store are held while it moves, and its proxy sessions are closed so their
+// clients reconnect to the new backend.
+@Service
+public class KvsppRebalanceService {
+
+    private static final Logger logger = LoggerFactory.getLogger(KvsppRebalanceService.class);
+    // Store used by the demo WebSocket endpoint; it has no row in the stores table
+    private static final String PUBLIC_STORE = "public";
+    // Answered after every command queued before it on the same pipelined connection
+    private static final String DRAIN_COMMAND = "GET __kvspp_drain__";
+    private static final int REPLAY_CHUNK = 1000;
+
+    @Autowired
+    private KvsppBackendRegistry backendRegistry;
+    @Autowired
+    private KvsppTcpClientService kvsppTcpClientService;
+    @Autowired
+    private KvsppWriteBehindBuffer writeBehindBuffer;
+    @Autowired
+    private KvsppValueCache valueCache;
+    @Autowired
+    private StoreRepository storeRepository;
+    @Autowired
+    private TcpProxyService tcpProxyService;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public record RebalanceResult(List<String> backends, List<String> moved, Map<String, String> failed) {}
+
+    public RebalanceResult addBackend(KvsppBackend backend) {
+        lock.lock();
+        try {
+            ConsistentHashRing current = backendRegistry.getRing();
+            if (current.contains(backend)) {
+                return moveStores(Map.of());
+            }
+            ConsistentHashRing next = current.withNode(backend);
+            List<String> tokens = new ArrayList<>(storeRepository.findAllTokens());
+            tokens.add(PUBLIC_STORE);
+            Map<String, KvsppBackend> moving = new LinkedHashMap<>();
+            for (String token : tokens) {
+                KvsppBackend owner = backendRegistry.backendFor(token);
+                if (!owner.equals(next.nodeFor(token))) {
+                    moving.put(token, owner);
+                }
+            }
+            backendRegistry.installRing(next, moving);
+            logger.info("✓ Backend " + backend + " added, moving " + moving.size() + " of " + tokens.size() + " stores");
+            return moveStores(moving);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Retries stores left pinned to their old backend by an earlier failed move
+    public RebalanceResult retryPinned() {
+        lock.lock();
+        try {
+            return moveStores(backendRegistry.getPinned());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private RebalanceResult moveStores(Map<String, KvsppBackend> moving) {
+        ConsistentHashRing ring = backendRegistry.getRing();
+        List<String> moved = new ArrayList<>();
+        Map<String, String> failed = new LinkedHashMap<>();
+        for (Map.Entry<String, KvsppBackend> entry : moving.entrySet()) {
+            String token = entry.getKey();
+            KvsppBackend target = ring.nodeFor(token);
+            try {
+                // Before the fence: the flush itself goes through the fenced path
+                writeBehindBuffer.flushAndWait(token);
+                backendRegistry.fence(token);
+                try {
+                    drain(token, entry.getValue());
+                    int copied = copyStore(token, entry.getValue(), target);
+                    backendRegistry.unpin(token);
+                    valueCache.invalidateStore(token);
+                    moved.add(token);
+                    logger.info("✓ Moved store " + token + " from " + entry.getValue() + " to " + target + " (" + copied + " keys)");
+                } finally {
+                    // Held commands go to the new backend, or to the old one if the move failed
+                    backendRegistry.lift(token);
+                }
+            } catch (IOException | RuntimeException e) {
+                // The store keeps being served by its old backend until a retry succeeds
+                logger.warn("✗ Failed to move store " + token + " to " + target + ": " + e.getMessage());
+                failed.put(token, e.getMessage());
+            }
+        }
+        List<String> backends = ring.getNodes().stream().map(KvsppBackend::toString).toList();
+        return new RebalanceResult(backends, moved, failed);
+    }
+
+    // Waits for writes already sent to the old backend, so the dump includes them
+    private void drain(String token, KvsppBackend source) throws IOException {
+        tcpProxyService.closeSessions(token);
+        CompletableFuture<String> marker = kvsppTcpClientService.sendAllAsync(source, token, List.of(DRAIN_COMMAND)).get(0);
+        PipelinedKvsppConnection.await(marker, kvsppTcpClientService.getReadTimeoutMs());
+    }
+
+    private int copyStore(String token, KvsppBackend source, KvsppBackend target) throws IOException {
+        String json = kvsppTcpClientService.sendCommand(source, token, "JSON");
+        if (json == null || !json.trim().startsWith("{")) {
+            throw new IOException("Unexpected JSON reply from " + source + ": " + json);
+        }
+        JsonNode store = objectMapper.readTree(json).path("store");
+        List<KvsppCommand> commands = new ArrayList<>();
+        int keys = 0;
+        for (Map.Entry<String, JsonNode> field : store.properties()) {
+            JsonNode value = field.getValue();
+            if ("autosave".equals(field.getKey())) {
+                commands.add(new KvsppCommand("AUTOSAVE", value.asBoolean() ? "ON" : "OFF", null));
+                continue;
+            }
+            JsonNode raw = value.isObject() && value.has("value") ? value.get("value") : value;
+            String text = raw.isTextual() ? raw.asText() : raw.toString();
+            if (text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0) {
+                throw new IOException("Value for key '" + field.getKey() + "' cannot be replayed as a single line");
+            }
+            commands.add(KvsppCommand.set(field.getKey(), text));
+            keys++;
+        }
+        // In chunks, so a large store does not overflow the pipelined connection's queue
+        for (int start = 0; start < commands.size(); start += REPLAY_CHUNK) {
+            List<KvsppCommand> chunk = commands.subList(start, Math.min(start + REPLAY_CHUNK, commands.size()));
+            List<CompletableFuture<String>> replies = kvsppTcpClientService.sendBatchAsync(target, token, chunk);
+            for (int i = 0; i < replies.size(); i++) {
+                String reply = PipelinedKvsppConnection.await(replies.get(i), kvsppTcpClientService.getReadTimeoutMs());
+                if (!"OK".equals(reply)) {
+                    throw new IOException("Replay on " + target + " failed for '" + chunk.get(i) + "': " + reply);
+                }
+            }
+        }
+        return keys;
+    }
+}
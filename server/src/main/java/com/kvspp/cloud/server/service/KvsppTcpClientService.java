@@ -1,37 +1,266 @@
 package com.kvspp.cloud.server.service;
 
+import com.kvspp.cloud.server.tcp.KvsppBackend;
+import com.kvspp.cloud.server.tcp.KvsppConnection;
+import com.kvspp.cloud.server.tcp.KvsppCommand;
+import com.kvspp.cloud.server.tcp.KvsppConnectionPool;
+import com.kvspp.cloud.server.tcp.KvsppEventLoopGroup;
+import com.kvspp.cloud.server.tcp.KvsppPipelinedClient;
+import com.kvspp.cloud.server.tcp.KvsppPoolSettings;
+import com.kvspp.cloud.server.tcp.PipelinedKvsppConnection;
+import io.micrometer.observation.Observation;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import java.io.*;
-import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 @Service
 public class KvsppTcpClientService {
-    @Value("${kvspp.tcp.host:localhost}")
-    private String host;
-
-    @Value("${kvspp.tcp.port:5555}")
-    private int port;
-
-    public synchronized String sendCommand(String storeToken, String command) throws IOException {
-        try (Socket socket = new Socket(host, port);
-             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-
-            // Send SELECT <storetoken> first
-            writer.write("SELECT " + storeToken + "\n");
-            writer.flush();
-            String selectResponse = reader.readLine();
-            if (selectResponse == null || selectResponse.startsWith("ERROR")) {
-                throw new IOException("Failed to select store: " + selectResponse);
+    @Autowired
+    private KvsppEventLoopGroup eventLoopGroup;
+
+    @Autowired
+    private KvsppBackendRegistry backendRegistry;
+
+    @Autowired
+    private KvsppCommandMetrics commandMetrics;
+
+    @Value("${kvspp.tcp.pool.min-size:2}")
+    private int poolMinSize;
+
+    @Value("${kvspp.tcp.pool.max-size:16}")
+    private int poolMaxSize;
+
+    @Value("${kvspp.tcp.pool.idle-timeout-ms:60000}")
+    private long poolIdleTimeoutMs;
+
+    @Value("${kvspp.tcp.pool.borrow-timeout-ms:5000}")
+    private long poolBorrowTimeoutMs;
+
+    @Value("${kvspp.tcp.pool.validation-interval-ms:30000}")
+    private long poolValidationIntervalMs;
+
+    @Value("${kvspp.tcp.pool.eviction-interval-ms:15000}")
+    private long poolEvictionIntervalMs;
+
+    @Value("${kvspp.tcp.connect-timeout-ms:3000}")
+    private int connectTimeoutMs;
+
+    @Value("${kvspp.tcp.read-timeout-ms:30000}")
+    private int readTimeoutMs;
+
+    @Value("${kvspp.tcp.pipeline.connections:4}")
+    private int pipelineConnections;
+
+    @Value("${kvspp.tcp.pipeline.max-batch:128}")
+    private int pipelineMaxBatch;
+
+    @Value("${kvspp.tcp.pipeline.max-pending:10000}")
+    private int pipelineMaxPending;
+
+    // One pool and one pipelined client per backend, created on first use
+    private final ConcurrentHashMap<KvsppBackend, KvsppConnectionPool> pools = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<KvsppBackend, KvsppPipelinedClient> pipelinedClients = new ConcurrentHashMap<>();
+    private KvsppPoolSettings poolSettings;
+    private volatile boolean closed;
+
+    @PostConstruct
+    public void init() {
+        poolSettings = new KvsppPoolSettings(
+                poolMinSize, poolMaxSize, poolIdleTimeoutMs, poolBorrowTimeoutMs,
+                poolValidationIntervalMs, poolEvictionIntervalMs, connectTimeoutMs, readTimeoutMs);
+        for (KvsppBackend backend : backendRegistry.getBackends()) {
+            poolFor(backend);
+            pipelinedClientFor(backend);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        closed = true;
+        pipelinedClients.values().forEach(KvsppPipelinedClient::close);
+        pools.values().forEach(KvsppConnectionPool::close);
+    }
+
+    private KvsppConnectionPool poolFor(KvsppBackend backend) {
+        return pools.computeIfAbsent(backend, b -> new KvsppConnectionPool(b.host(), b.port(), poolSettings));
+    }
+
+    private KvsppPipelinedClient pipelinedClientFor(KvsppBackend backend) {
+        return pipelinedClients.computeIfAbsent(backend, b -> new KvsppPipelinedClient(b.host(), b.port(),
+                eventLoopGroup, pipelineConnections, pipelineMaxBatch, pipelineMaxPending, connectTimeoutMs, readTimeoutMs));
+    }
+
+    public String sendCommand(String storeToken, String command) throws IOException {
+        backendRegistry.awaitUnfenced(storeToken, readTimeoutMs);
+        return sendCommand(backendRegistry.backendFor(storeToken), storeToken, command);
+    }
+
+    public String sendCommand(KvsppBackend backend, String storeToken, String command) throws IOException {
+        if (closed) {
+            throw new IOException("Backend client is closed");
+        }
+        // SELECT is only sent when the pooled connection has a different store selected
+        long start = System.nanoTime();
+        Observation span = commandMetrics.startSpan(command);
+        KvsppConnectionPool pool = poolFor(backend);
+        String output = null;
+        Exception failure = null;
+        KvsppConnection connection = null;
+        try {
+            connection = pool.borrow(storeToken);
+            output = connection.execute(command);
+            return output;
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            if (connection != null) {
+                pool.release(connection);
             }
+            commandMetrics.record(storeToken, command, start, span, output, failure);
+        }
+    }
 
-            // Send the actual command
-            writer.write(command + "\n");
-            writer.flush();
-            String response = reader.readLine();
-            return response;
+    // Streams a large reply (such as JSON) to the handler instead of buffering it as a String.
+    // The connection goes back to the pool only if the handler read the reply to the end.
+    public <T> T sendCommandStreaming(String storeToken, String command, ReplyHandler<T> handler) throws IOException {
+        if (closed) {
+            throw new IOException("Backend client is closed");
+        }
+        backendRegistry.awaitUnfenced(storeToken, readTimeoutMs);
+        long start = System.nanoTime();
+        Observation span = commandMetrics.startSpan(command);
+        KvsppConnectionPool pool = poolFor(backendRegistry.backendFor(storeToken));
+        Exception failure = null;
+        KvsppConnection connection = null;
+        try {
+            connection = pool.borrow(storeToken);
+            try (InputStream reply = connection.executeStreaming(command)) {
+                return handler.handle(reply);
+            }
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            if (connection != null) {
+                pool.release(connection);
+            }
+            commandMetrics.record(storeToken, command, start, span, null, failure);
         }
     }
-}
 
+    @FunctionalInterface
+    public interface ReplyHandler<T> {
+        T handle(InputStream reply) throws IOException;
+    }
+
+    // Queues a single-line command on a shared pipelined connection. Meant for small
+    // key operations; bulk replies such as JSON should go through sendCommand instead.
+    // The future completes on a backend event loop thread, so callers must not block in
+    // its continuations.
+    public CompletableFuture<String> sendAsync(String storeToken, String command) {
+        return routed(storeToken, () -> commandMetrics.track(storeToken, command,
+                pipelinedClientFor(backendRegistry.backendFor(storeToken)).send(storeToken, command)));
+    }
+
+    // Encodes the line from its parts, e.g. ("SET", key, value), instead of a concatenated String
+    public CompletableFuture<String> sendAsync(String storeToken, String command, String key, String value) {
+        return routed(storeToken, () -> commandMetrics.track(storeToken, command,
+                pipelinedClientFor(backendRegistry.backendFor(storeToken)).send(storeToken, command, key, value)));
+    }
+
+    public List<CompletableFuture<String>> sendAllAsync(String storeToken, List<String> commands) {
+        return routedAll(storeToken, commands.size(),
+                () -> sendAllAsync(backendRegistry.backendFor(storeToken), storeToken, commands));
+    }
+
+    // Same as sendAllAsync(), with every line encoded from its parts
+    public List<CompletableFuture<String>> sendBatchAsync(String storeToken, List<KvsppCommand> commands) {
+        return routedAll(storeToken, commands.size(),
+                () -> sendBatchAsync(backendRegistry.backendFor(storeToken), storeToken, commands));
+    }
+
+    private List<CompletableFuture<String>> routedAll(String storeToken, int count,
+                                                      Supplier<List<CompletableFuture<String>>> send) {
+        if (!backendRegistry.isFenced(storeToken)) {
+            return send.get();
+        }
+        List<CompletableFuture<String>> replies = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            replies.add(new CompletableFuture<>());
+        }
+        Runnable task = () -> {
+            List<CompletableFuture<String>> sent = send.get();
+            for (int i = 0; i < sent.size(); i++) {
+                pipe(sent.get(i), replies.get(i));
+            }
+        };
+        try {
+            if (!backendRegistry.holdWhileFenced(storeToken, task)) {
+                task.run();
+            }
+        } catch (IOException e) {
+            replies.forEach(reply -> reply.completeExceptionally(e));
+        }
+        return replies;
+    }
+
+    // Sends now, or once the store has finished moving to another backend
+    private CompletableFuture<String> routed(String storeToken, Supplier<CompletableFuture<String>> send) {
+        if (!backendRegistry.isFenced(storeToken)) {
+            return send.get();
+        }
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        Runnable task = () -> pipe(send.get(), reply);
+        try {
+            if (!backendRegistry.holdWhileFenced(storeToken, task)) {
+                task.run();
+            }
+        } catch (IOException e) {
+            reply.completeExceptionally(e);
+        }
+        return reply;
+    }
+
+    private static void pipe(CompletableFuture<String> from, CompletableFuture<String> to) {
+        from.whenComplete((output, error) -> {
+            if (error != null) {
+                to.completeExceptionally(error);
+            } else {
+                to.complete(output);
+            }
+        });
+    }
+
+    public List<CompletableFuture<String>> sendAllAsync(KvsppBackend backend, String storeToken, List<String> commands) {
+        List<CompletableFuture<String>> replies = pipelinedClientFor(backend).sendAll(storeToken, commands);
+        for (int i = 0; i < replies.size(); i++) {
+            replies.set(i, commandMetrics.track(storeToken, commands.get(i), replies.get(i)));
+        }
+        return replies;
+    }
+
+    public List<CompletableFuture<String>> sendBatchAsync(KvsppBackend backend, String storeToken, List<KvsppCommand> commands) {
+        List<CompletableFuture<String>> replies = pipelinedClientFor(backend).sendBatch(storeToken, commands);
+        for (int i = 0; i < replies.size(); i++) {
+            replies.set(i, commandMetrics.track(storeToken, commands.get(i).command(), replies.get(i)));
+        }
+        return replies;
+    }
+
+    public String sendPipelined(String storeToken, String command) throws IOException {
+        return PipelinedKvsppConnection.await(sendAsync(storeToken, command), readTimeoutMs);
+    }
+
+    public long getReadTimeoutMs() {
+        return readTimeoutMs;
+    }
+}
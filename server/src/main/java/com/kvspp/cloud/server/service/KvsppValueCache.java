@@ -0,0 +1,268 @@
+package com.kvspp.cloud.server.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// In-process read-through cache of GET replies, keyed by store token + key.
+// Striped into LRU segments, each bounded by entry count and estimated bytes.
+@Service
+public class KvsppValueCache {
+
+    private static final int SEGMENTS = 16;
+    // Rough per-entry overhead of the map node, key record and strings
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    @Value("${kvspp.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${kvspp.cache.max-entries:10000}")
+    private int maxEntries;
+
+    @Value("${kvspp.cache.max-bytes:16777216}")
+    private long maxBytes;
+
+    @Value("${kvspp.cache.ttl-ms:0}")
+    private long ttlMs;
+
+    @Value("${kvspp.cache.excluded-stores:}")
+    private Set<String> excludedStores;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    // Bumped on every write to a store, cached or not; lets whole-store views tell they are stale
+    private final ConcurrentHashMap<String, AtomicLong> writeVersions = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, maxEntries / SEGMENTS), Math.max(1, maxBytes / SEGMENTS));
+        }
+        FunctionCounter.builder("kvspp.cache.hits", hits, LongAdder::sum).register(meterRegistry);
+        FunctionCounter.builder("kvspp.cache.misses", misses, LongAdder::sum).register(meterRegistry);
+        FunctionCounter.builder("kvspp.cache.evictions", evictions, LongAdder::sum).register(meterRegistry);
+        FunctionCounter.builder("kvspp.cache.invalidations", invalidations, LongAdder::sum).register(meterRegistry);
+        Gauge.builder("kvspp.cache.entries", this, KvsppValueCache::size).register(meterRegistry);
+        Gauge.builder("kvspp.cache.bytes", this, KvsppValueCache::estimatedBytes)
+                .baseUnit("bytes").register(meterRegistry);
+    }
+
+    public boolean isCacheable(String storeToken) {
+        return enabled && !excludedStores.contains(storeToken);
+    }
+
+    // Returns the cached raw reply ("VALUE ..." or "NOT_FOUND"), or null on a miss
+    public String get(String storeToken, String key) {
+        if (!isCacheable(storeToken)) {
+            return null;
+        }
+        CacheKey cacheKey = new CacheKey(storeToken, key);
+        String reply = segmentFor(cacheKey).get(cacheKey);
+        if (reply == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return reply;
+    }
+
+    // Call before sending a GET; pass the ticket to put() so a write that raced the
+    // GET prevents its now-stale reply from being cached
+    public long beginLoad(String storeToken, String key) {
+        return segmentFor(new CacheKey(storeToken, key)).writeStamp;
+    }
+
+    public void put(String storeToken, String key, String reply, long ticket) {
+        if (!isCacheable(storeToken) || reply == null) {
+            return;
+        }
+        if (!reply.startsWith("VALUE ") && !"NOT_FOUND".equals(reply)) {
+            return;
+        }
+        CacheKey cacheKey = new CacheKey(storeToken, key);
+        segmentFor(cacheKey).put(cacheKey, reply, ticket);
+    }
+
+    // Writers call this both before sending and after the backend replies
+    public void invalidate(String storeToken, String key) {
+        bumpWriteVersion(storeToken);
+        CacheKey cacheKey = new CacheKey(storeToken, key);
+        segmentFor(cacheKey).remove(cacheKey);
+        invalidations.increment();
+    }
+
+    public void invalidateStore(String storeToken) {
+        bumpWriteVersion(storeToken);
+        for (Segment segment : segments) {
+            segment.removeStore(storeToken);
+        }
+        invalidations.increment();
+    }
+
+    // Keeps the cache in step with a raw protocol command that went to the backend
+    public void invalidateForCommand(String storeToken, String command) {
+        if (command == null) {
+            return;
+        }
+        String[] parts = command.trim().split("\\s+", 3);
+        String verb = parts[0].toUpperCase();
+        if ((verb.equals("SET") || verb.equals("DELETE")) && parts.length >= 2) {
+            invalidate(storeToken, parts[1]);
+        } else if (verb.equals("LOAD")) {
+            invalidateStore(storeToken);
+        }
+    }
+
+    public long writeVersion(String storeToken) {
+        AtomicLong version = writeVersions.get(storeToken);
+        return version == null ? 0 : version.get();
+    }
+
+    private void bumpWriteVersion(String storeToken) {
+        writeVersions.computeIfAbsent(storeToken, t -> new AtomicLong()).incrementAndGet();
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long estimatedBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.bytes;
+        }
+        return bytes;
+    }
+
+    private Segment segmentFor(CacheKey key) {
+        return segments[Math.floorMod(key.hashCode(), SEGMENTS)];
+    }
+
+    private record CacheKey(String storeToken, String key) {
+        long estimatedBytes(String reply) {
+            return ENTRY_OVERHEAD_BYTES + 2L * (storeToken.length() + key.length() + reply.length());
+        }
+    }
+
+    private record Entry(String reply, long bytes, long expiresAt) {}
+
+    private final class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LinkedHashMap<CacheKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final int maxEntries;
+        private final long maxBytes;
+        private volatile long bytes;
+        // Bumped on every invalidation; a load started before a bump is not cached
+        private volatile long writeStamp;
+
+        Segment(int maxEntries, long maxBytes) {
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+        }
+
+        String get(CacheKey key) {
+            lock.lock();
+            try {
+                Entry entry = entries.get(key);
+                if (entry == null) {
+                    return null;
+                }
+                if (entry.expiresAt != 0 && System.nanoTime() - entry.expiresAt > 0) {
+                    entries.remove(key);
+                    bytes -= entry.bytes;
+                    return null;
+                }
+                return entry.reply;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(CacheKey key, String reply, long ticket) {
+            long size = key.estimatedBytes(reply);
+            if (size > maxBytes) {
+                return;
+            }
+            long expiresAt = ttlMs > 0 ? System.nanoTime() + ttlMs * 1_000_000 : 0;
+            lock.lock();
+            try {
+                if (writeStamp != ticket) {
+                    return;
+                }
+                Entry previous = entries.put(key, new Entry(reply, size, expiresAt));
+                bytes += size - (previous != null ? previous.bytes : 0);
+                Iterator<Map.Entry<CacheKey, Entry>> eldest = entries.entrySet().iterator();
+                while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+                    Entry evicted = eldest.next().getValue();
+                    eldest.remove();
+                    bytes -= evicted.bytes;
+                    evictions.increment();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void remove(CacheKey key) {
+            lock.lock();
+            try {
+                writeStamp++;
+                Entry removed = entries.remove(key);
+                if (removed != null) {
+                    bytes -= removed.bytes;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void removeStore(String storeToken) {
+            lock.lock();
+            try {
+                writeStamp++;
+                Iterator<Map.Entry<CacheKey, Entry>> it = entries.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<CacheKey, Entry> entry = it.next();
+                    if (entry.getKey().storeToken().equals(storeToken)) {
+                        bytes -= entry.getValue().bytes;
+                        it.remove();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return entries.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.kvspp.cloud.server.service;
+
+import com.kvspp.cloud.server.tcp.KvsppCommand;
+import com.kvspp.cloud.server.tcp.KvsppLineCodec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// Optional write-behind mode for selected stores. SET/DELETE are acknowledged once buffered,
+// coalesced per key (last write wins) and flushed to KVS++ as one pipelined batch when the
+// buffer fills up, on a timer, and before anything that reads the whole store.
+@Service
+public class KvsppWriteBehindBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(KvsppWriteBehindBuffer.class);
+
+    @Value("${kvspp.write-behind.stores:}")
+    private Set<String> stores;
+
+    @Value("${kvspp.write-behind.max-buffered:500}")
+    private int maxBuffered;
+
+    @Value("${kvspp.write-behind.flush-interval-ms:100}")
+    private long flushIntervalMs;
+
+    @Value("${kvspp.tcp.read-timeout-ms:30000}")
+    private long readTimeoutMs;
+
+    @Autowired
+    private KvsppTcpClientService kvsppTcpClientService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final ConcurrentHashMap<String, StoreBuffer> buffers = new ConcurrentHashMap<>();
+    private ScheduledExecutorService flusher;
+    private Counter coalesced;
+    private Counter flushed;
+    private Counter failed;
+
+    @PostConstruct
+    public void init() {
+        coalesced = Counter.builder("kvspp.write-behind.coalesced").register(meterRegistry);
+        flushed = Counter.builder("kvspp.write-behind.flushed").register(meterRegistry);
+        failed = Counter.builder("kvspp.write-behind.failed").register(meterRegistry);
+        Gauge.builder("kvspp.write-behind.buffered", this, KvsppWriteBehindBuffer::bufferedCount).register(meterRegistry);
+        if (stores.isEmpty()) {
+            return;
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "kvspp-write-behind");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushAll, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        for (String storeToken : buffers.keySet()) {
+            try {
+                flushAndWait(storeToken);
+            } catch (IOException e) {
+                logger.warn("Could not flush buffered writes for store " + storeToken + " on shutdown: " + e.getMessage());
+            }
+        }
+    }
+
+    public boolean isEnabled(String storeToken) {
+        return stores.contains(storeToken);
+    }
+
+    // Checked here because a buffered write is acknowledged long before it reaches the backend
+    public void set(String storeToken, String key, String value) {
+        if (!KvsppLineCodec.isSingleLine(key) || !KvsppLineCodec.isSingleLine(value)) {
+            throw new IllegalArgumentException("Key and value must not contain line breaks");
+        }
+        buffer(storeToken).write(key, value);
+    }
+
+    public void delete(String storeToken, String key) {
+        if (!KvsppLineCodec.isSingleLine(key)) {
+            throw new IllegalArgumentException("Key must not contain line breaks");
+        }
+        buffer(storeToken).write(key, null);
+    }
+
+    // Returns "VALUE ..." or "NOT_FOUND" if the key has a write that KVS++ has not acknowledged yet
+    public String lookup(String storeToken, String key) {
+        if (!isEnabled(storeToken)) {
+            return null;
+        }
+        StoreBuffer buffer = buffers.get(storeToken);
+        return buffer == null ? null : buffer.lookup(key);
+    }
+
+    // Completes once every write buffered so far has been sent and answered. Writes the backend
+    // rejected are logged and counted in kvspp.write-behind.failed rather than failing a caller
+    // that did not make them.
+    public CompletableFuture<Void> flush(String storeToken) {
+        StoreBuffer buffer = buffers.get(storeToken);
+        return buffer == null ? CompletableFuture.completedFuture(null) : buffer.flush();
+    }
+
+    public void flushAndWait(String storeToken) throws IOException {
+        try {
+            flush(storeToken).get(readTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to flush buffered writes", e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out flushing buffered writes", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing buffered writes", e);
+        }
+    }
+
+    // Handles a raw proxy command for a write-behind store: writes are buffered, reads of
+    // buffered keys are answered locally, and anything else goes out after a flush. While such a
+    // command is waiting, later commands for the store wait behind it so none of them is
+    // answered from the buffer ahead of it.
+    public CompletableFuture<String> proxy(String storeToken, String command,
+                                           Function<String, CompletableFuture<String>> backend) {
+        if (!KvsppLineCodec.isSingleLine(command)) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Command must not contain line breaks"));
+        }
+        // Split the way KVS++ does, so a command means the same whether it is buffered or sent
+        String[] parts = command.split(" ", 3);
+        String verb = parts[0].toUpperCase();
+        StoreBuffer buffer = buffer(storeToken);
+        if (verb.equals("SET") && parts.length == 3) {
+            return buffer.run(() -> {
+                set(storeToken, parts[1], parts[2]);
+                return CompletableFuture.completedFuture("OK");
+            }, false);
+        }
+        if (verb.equals("DELETE") && parts.length == 2) {
+            return buffer.run(() -> {
+                delete(storeToken, parts[1]);
+                return CompletableFuture.completedFuture("OK");
+            }, false);
+        }
+        if (verb.equals("GET") && parts.length == 2) {
+            return buffer.run(() -> {
+                String buffered = lookup(storeToken, parts[1]);
+                return buffered != null ? CompletableFuture.completedFuture(buffered) : backend.apply(command);
+            }, false);
+        }
+        return buffer.run(() -> buffer.flush().thenCompose(ignored -> backend.apply(command)), true);
+    }
+
+    private StoreBuffer buffer(String storeToken) {
+        return buffers.computeIfAbsent(storeToken, StoreBuffer::new);
+    }
+
+    private void flushAll() {
+        for (StoreBuffer buffer : buffers.values()) {
+            try {
+                buffer.flush();
+            } catch (Exception e) {
+                logger.warn("Write-behind flush failed for store " + buffer.storeToken + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private double bufferedCount() {
+        long count = 0;
+        for (StoreBuffer buffer : buffers.values()) {
+            count += buffer.pending.size();
+        }
+        return count;
+    }
+
+    private final class StoreBuffer {
+        private final String storeToken;
+        private final ReentrantLock lock = new ReentrantLock();
+        // key -> value, or null for a delete
+        private LinkedHashMap<String, String> pending = new LinkedHashMap<>();
+        // Batches on the wire, oldest first; still consulted by lookups until acknowledged
+        private final ArrayDeque<Map<String, String>> inFlight = new ArrayDeque<>();
+        private CompletableFuture<Void> lastFlush = CompletableFuture.completedFuture(null);
+        // Last proxy command that had to wait for a flush, or a command queued behind one
+        private CompletableFuture<String> waiting = CompletableFuture.completedFuture(null);
+
+        StoreBuffer(String storeToken) {
+            this.storeToken = storeToken;
+        }
+
+        void write(String key, String value) {
+            boolean full;
+            lock.lock();
+            try {
+                if (pending.containsKey(key)) {
+                    pending.remove(key);
+                    coalesced.increment();
+                }
+                pending.put(key, value);
+                full = pending.size() >= maxBuffered;
+            } finally {
+                lock.unlock();
+            }
+            if (full) {
+                flush();
+            }
+        }
+
+        // Runs the command now, unless an earlier command is still waiting; then it runs after it.
+        // Commands that wait for a flush themselves become the new tail.
+        CompletableFuture<String> run(Supplier<CompletableFuture<String>> command, boolean waitsForFlush) {
+            lock.lock();
+            try {
+                if (waitsForFlush || !waiting.isDone()) {
+                    waiting = waiting.handle((reply, error) -> null).thenCompose(ignored -> command.get());
+                    return waiting;
+                }
+            } finally {
+                lock.unlock();
+            }
+            return command.get();
+        }
+
+        String lookup(String key) {
+            lock.lock();
+            try {
+                if (pending.containsKey(key)) {
+                    return reply(pending.get(key));
+                }
+                Iterator<Map<String, String>> newestFirst = inFlight.descendingIterator();
+                while (newestFirst.hasNext()) {
+                    Map<String, String> batch = newestFirst.next();
+                    if (batch.containsKey(key)) {
+                        return reply(batch.get(key));
+                    }
+                }
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private String reply(String value) {
+            return value == null ? "NOT_FOUND" : "VALUE " + value;
+        }
+
+        CompletableFuture<Void> flush() {
+            lock.lock();
+            try {
+                if (pending.isEmpty()) {
+                    return lastFlush;
+                }
+                LinkedHashMap<String, String> batch = pending;
+                pending = new LinkedHashMap<>();
+                List<KvsppCommand> commands = new ArrayList<>(batch.size());
+                for (Map.Entry<String, String> entry : batch.entrySet()) {
+                    commands.add(entry.getValue() == null
+                            ? KvsppCommand.delete(entry.getKey())
+                            : KvsppCommand.set(entry.getKey(), entry.getValue()));
+                }
+                inFlight.addLast(batch);
+                // Sent under the lock so batches reach the store's pipelined connection in order
+                List<CompletableFuture<String>> replies = kvsppTcpClientService.sendBatchAsync(storeToken, commands);
+                lastFlush = CompletableFuture.allOf(replies.toArray(new CompletableFuture[0]))
+                        .handle((ignored, error) -> {
+                            onFlushed(batch, commands, replies);
+                            return null;
+                        });
+                return lastFlush;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void onFlushed(Map<String, String> batch, List<KvsppCommand> commands, List<CompletableFuture<String>> replies) {
+            int failures = 0;
+            String firstFailure = null;
+            for (int i = 0; i < replies.size(); i++) {
+                CompletableFuture<String> reply = replies.get(i);
+                String output = reply.isCompletedExceptionally() ? null : reply.join();
+                // DELETE of a key that was never written comes back NOT_FOUND, which is fine
+                if (output == null || output.startsWith("ERROR")) {
+                    failures++;
+                    if (firstFailure == null) {
+                        firstFailure = commands.get(i) + " -> "
+                                + (output != null ? output : reply.exceptionNow().getMessage());
+                    }
+                }
+            }
+            if (failures > 0) {
+                // Already acknowledged to the client, so the log and the counter are all that is left
+                logger.warn("✗ " + failures + " of " + replies.size() + " buffered writes for store " + storeToken
+                        + " failed, first: " + firstFailure);
+            }
+            flushed.increment(replies.size() - failures);
+            failed.increment(failures);
+            lock.lock();
+            try {
+                inFlight.removeIf(b -> b == batch);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.kvspp.cloud.server.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Token buckets per client IP and per store, shared by the REST KV endpoints and the WebSocket
+// proxy. Each bucket is a single AtomicLong holding the time at which it will be full again
+// (GCRA): taking n tokens moves that time n intervals ahead, and a request is refused when it
+// would end up more than burst intervals past now. Buckets are updated with CAS, no locks.
+// At most max-tracked buckets are kept per scope; when full, buckets that have refilled are
+// dropped first, which loses nothing, then those closest to refilled (the least used) down to 90%.
+@Service
+public class RequestRateLimiter {
+
+    public static final String REST = "rest";
+    public static final String WEBSOCKET = "websocket";
+
+    // Requests (or commands, for batches) per second and bucket size; per-second 0 turns a scope off
+    @Value("${kvspp.rate-limit.ip.per-second:500}")
+    private double ipPerSecond;
+
+    @Value("${kvspp.rate-limit.ip.burst:1000}")
+    private int ipBurst;
+
+    @Value("${kvspp.rate-limit.store.per-second:5000}")
+    private double storePerSecond;
+
+    @Value("${kvspp.rate-limit.store.burst:10000}")
+    private int storeBurst;
+
+    @Value("${kvspp.rate-limit.max-tracked:100000}")
+    private int maxTracked;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Limit ipLimit;
+    private Limit storeLimit;
+    private final ConcurrentHashMap<String, Counter> rejected = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        ipLimit = new Limit("ip", ipPerSecond, ipBurst);
+        storeLimit = new Limit("store", storePerSecond, storeBurst);
+    }
+
+    // Takes cost tokens from the client's and the store's bucket. Returns 0 if the request may go
+    // ahead, otherwise the nanoseconds until it would fit; nothing is taken from either bucket then.
+    // Costs above a bucket's burst are capped to it, so the largest batch needs a full bucket.
+    public long acquire(String clientAddress, String storeToken, int cost, String channel) {
+        long now = System.nanoTime();
+        String client = clientKey(clientAddress);
+        long wait = ipLimit.acquire(client, cost, now);
+        if (wait > 0) {
+            recordRejected("ip", channel);
+            return wait;
+        }
+        wait = storeLimit.acquire(storeToken, cost, now);
+        if (wait > 0) {
+            ipLimit.refund(client, cost);
+            recordRejected("store", channel);
+            return wait;
+        }
+        return 0;
+    }
+
+    public void recordRejected(String scope, String channel) {
+        rejected.computeIfAbsent(scope + "/" + channel, k -> Counter.builder("kvspp.rate-limit.rejected")
+                .description("Requests and sessions refused by rate limiting or admission control")
+                .tag("scope", scope)
+                .tag("channel", channel)
+                .register(meterRegistry)).increment();
+    }
+
+    // IPv6 clients usually get a whole /64, so they are limited per /64 rather than per address
+    static String clientKey(String address) {
+        if (address == null || address.isEmpty()) {
+            return "unknown";
+        }
+        if (address.indexOf(':') < 0) {
+            return address;
+        }
+        try {
+            byte[] bytes = InetAddress.getByName(address).getAddress();
+            if (bytes.length != 16) {
+                return address;
+            }
+            StringBuilder prefix = new StringBuilder();
+            for (int i = 0; i < 8; i += 2) {
+                prefix.append(Integer.toHexString(((bytes[i] & 0xff) << 8) | (bytes[i + 1] & 0xff))).append(':');
+            }
+            return prefix.append(":/64").toString();
+        } catch (UnknownHostException e) {
+            return address;
+        }
+    }
+
+    private final class Limit {
+        private final boolean enabled;
+        // Nanoseconds per token, and how far ahead of now a bucket's refill time may run
+        private final long interval;
+        private final long tolerance;
+        private final int burst;
+        private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+        private final ReentrantLock evictLock = new ReentrantLock();
+
+        Limit(String scope, double perSecond, int burst) {
+            this.enabled = perSecond > 0;
+            this.burst = Math.max(1, burst);
+            this.interval = enabled ? Math.max(1, (long) (1_000_000_000 / perSecond)) : 0;
+            this.tolerance = interval * this.burst;
+            Gauge.builder("kvspp.rate-limit.buckets", buckets, ConcurrentHashMap::size)
+                    .description("Token buckets currently tracked")
+                    .tag("scope", scope)
+                    .register(meterRegistry);
+        }
+
+        long acquire(String key, int cost, long now) {
+            if (!enabled || key == null) {
+                return 0;
+            }
+            AtomicLong bucket = buckets.get(key);
+            if (bucket == null) {
+                if (buckets.size() >= maxTracked) {
+                    evict(now);
+                }
+                bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+            }
+            long increment = interval * Math.min(cost, burst);
+            while (true) {
+                long fullAt = bucket.get();
+                long next = Math.max(fullAt, now) + increment;
+                long excess = next - now - tolerance;
+                if (excess > 0) {
+                    return excess;
+                }
+                if (bucket.compareAndSet(fullAt, next)) {
+                    return 0;
+                }
+            }
+        }
+
+        // Gives back tokens taken by a request that was refused further on
+        void refund(String key, int cost) {
+            AtomicLong bucket = buckets.get(key);
+            if (enabled && bucket != null) {
+                bucket.addAndGet(-interval * Math.min(cost, burst));
+            }
+        }
+
+        // One thread evicts at a time; others go ahead meanwhile, briefly over max-tracked
+        private void evict(long now) {
+            if (!evictLock.tryLock()) {
+                return;
+            }
+            try {
+                buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+                // Then down to 90%, so this does not run on every new key while full. Buckets with
+                // the earliest refill time are dropped: they were charged least recently, and a
+                // dropped bucket only loses the few tokens it still lacked.
+                int excess = buckets.size() - (maxTracked - Math.max(1, maxTracked / 10));
+                if (excess <= 0) {
+                    return;
+                }
+                long[] fullAt = buckets.values().stream().mapToLong(AtomicLong::get).toArray();
+                Arrays.sort(fullAt);
+                long cutoff = fullAt[Math.min(excess, fullAt.length) - 1];
+                buckets.entrySet().removeIf(entry -> entry.getValue().get() - cutoff <= 0);
+            } finally {
+                evictLock.unlock();
+            }
+        }
+    }
+}
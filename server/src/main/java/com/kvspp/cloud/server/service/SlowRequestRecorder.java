@@ -0,0 +1,180 @@
+package com.kvspp.cloud.server.service;
+
+import io.micrometer.common.KeyValue;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationView;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.server.observation.ServerRequestObservationContext;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Collects the stages (kvspp.request.* observations) of each HTTP request and WebSocket proxy
+// command, and keeps the most recent requests slower than slow-threshold-ms in a fixed-size ring.
+// Store tokens are shortened so the ring can be read without exposing them.
+@Component
+public class SlowRequestRecorder implements ObservationHandler<Observation.Context> {
+
+    public static final String STAGE_PREFIX = "kvspp.request.";
+    public static final String PROXY_COMMAND = "kvspp.proxy.command";
+
+    @Value("${kvspp.tracing.slow-threshold-ms:500}")
+    private long slowThresholdMs;
+
+    @Value("${kvspp.tracing.ring-size:100}")
+    private int ringSize;
+
+    private AtomicReferenceArray<SlowRequest> ring;
+    private final AtomicLong next = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        ringSize = Math.max(1, ringSize);
+        ring = new AtomicReferenceArray<>(ringSize);
+    }
+
+    public record Stage(String name, Map<String, String> tags, double startMs, double durationMs, String error) {}
+
+    public record SlowRequest(Instant at, String request, String store, double durationMs, String error,
+                              List<Stage> stages) {}
+
+    private static final class Breakdown {
+        private final long startNanos = System.nanoTime();
+        private final ConcurrentLinkedQueue<Stage> stages = new ConcurrentLinkedQueue<>();
+    }
+
+    private record StageStart(long nanos) {}
+
+    @Override
+    public boolean supportsContext(Observation.Context context) {
+        // HTTP server contexts get their name from the convention only once they start
+        if (context instanceof ServerRequestObservationContext) {
+            return true;
+        }
+        String name = context.getName();
+        return name != null && (name.startsWith(STAGE_PREFIX) || name.equals(PROXY_COMMAND));
+    }
+
+    @Override
+    public void onStart(Observation.Context context) {
+        if (isStage(context)) {
+            context.put(StageStart.class, new StageStart(System.nanoTime()));
+        } else {
+            context.put(Breakdown.class, new Breakdown());
+        }
+    }
+
+    @Override
+    public void onStop(Observation.Context context) {
+        long now = System.nanoTime();
+        if (isStage(context)) {
+            StageStart start = context.get(StageStart.class);
+            Breakdown breakdown = rootBreakdown(context);
+            if (start == null || breakdown == null) {
+                return;
+            }
+            Map<String, String> tags = new LinkedHashMap<>();
+            for (KeyValue keyValue : context.getLowCardinalityKeyValues()) {
+                tags.put(keyValue.getKey(), keyValue.getValue());
+            }
+            breakdown.stages.add(new Stage(context.getName().substring(STAGE_PREFIX.length()), tags,
+                    millis(start.nanos() - breakdown.startNanos), millis(now - start.nanos()), errorOf(context)));
+            return;
+        }
+        Breakdown breakdown = context.get(Breakdown.class);
+        if (breakdown == null || now - breakdown.startNanos < slowThresholdMs * 1_000_000) {
+            return;
+        }
+        List<Stage> stages = new ArrayList<>(breakdown.stages);
+        stages.sort((a, b) -> Double.compare(a.startMs(), b.startMs()));
+        SlowRequest request = new SlowRequest(Instant.now(), describe(context), storeOf(context),
+                millis(now - breakdown.startNanos), errorOf(context), stages);
+        ring.set((int) (next.getAndIncrement() % ringSize), request);
+    }
+
+    // Newest first
+    public List<SlowRequest> recent() {
+        AtomicReferenceArray<SlowRequest> entries = ring;
+        long last = next.get();
+        List<SlowRequest> recent = new ArrayList<>(ringSize);
+        for (long i = last - 1; i >= 0 && i >= last - ringSize; i--) {
+            SlowRequest request = entries.get((int) (i % ringSize));
+            if (request != null) {
+                recent.add(request);
+            }
+        }
+        return recent;
+    }
+
+    public long getSlowThresholdMs() {
+        return slowThresholdMs;
+    }
+
+    private static boolean isStage(Observation.Context context) {
+        return context.getName() != null && context.getName().startsWith(STAGE_PREFIX);
+    }
+
+    private static Breakdown rootBreakdown(Observation.Context context) {
+        ObservationView parent = context.getParentObservation();
+        while (parent != null) {
+            Breakdown breakdown = parent.getContextView().get(Breakdown.class);
+            if (breakdown != null) {
+                return breakdown;
+            }
+            parent = parent.getContextView().getParentObservation();
+        }
+        return null;
+    }
+
+    private static String describe(Observation.Context context) {
+        if (context instanceof ServerRequestObservationContext http) {
+            HttpServletRequest request = http.getCarrier();
+            String path = http.getPathPattern() != null ? http.getPathPattern() : redactPath(request.getRequestURI());
+            return request.getMethod() + " " + path;
+        }
+        KeyValue command = context.getLowCardinalityKeyValue("command");
+        return "WS " + (command != null ? command.getValue() : context.getName());
+    }
+
+    private static String storeOf(Observation.Context context) {
+        if (context instanceof ServerRequestObservationContext http) {
+            String uri = http.getCarrier().getRequestURI();
+            if (uri.startsWith("/store/")) {
+                int end = uri.indexOf('/', "/store/".length());
+                return redact(uri.substring("/store/".length(), end < 0 ? uri.length() : end));
+            }
+            return null;
+        }
+        KeyValue store = context.getHighCardinalityKeyValue("store");
+        return store != null ? redact(store.getValue()) : null;
+    }
+
+    // Used only when no route pattern was matched; keeps the first segment
+    private static String redactPath(String uri) {
+        int second = uri.indexOf('/', 1);
+        return second < 0 ? uri : uri.substring(0, second) + "/...";
+    }
+
+    private static String redact(String storeToken) {
+        return storeToken.length() <= 8 ? storeToken : storeToken.substring(0, 8) + "...";
+    }
+
+    private static String errorOf(Observation.Context context) {
+        Throwable error = context.getError();
+        return error == null ? null : error.getClass().getSimpleName();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
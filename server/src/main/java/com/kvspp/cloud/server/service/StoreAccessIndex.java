@@ -0,0 +1,116 @@
+package com.kvspp.cloud.server.service;
+
+import com.kvspp.cloud.server.repository.StoreRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Store token -> owner IDs, loaded on first use and dropped whenever a store's owners change,
+// so access checks are a map lookup instead of a store + owners join. Unknown tokens are not
+// cached; entries also expire after ttl-ms to pick up changes made by other instances.
+@Service
+public class StoreAccessIndex {
+
+    @Value("${kvspp.access-index.max-entries:100000}")
+    private int maxEntries;
+
+    @Value("${kvspp.access-index.ttl-ms:60000}")
+    private long ttlMs;
+
+    @Autowired
+    private StoreRepository storeRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    // Bumped on every invalidation; a load started before a bump is not cached
+    private final AtomicLong writeStamp = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private record Entry(Set<UUID> owners, long expiresAt) {}
+
+    @PostConstruct
+    public void init() {
+        FunctionCounter.builder("kvspp.access.index.hits", hits, LongAdder::sum).register(meterRegistry);
+        FunctionCounter.builder("kvspp.access.index.misses", misses, LongAdder::sum).register(meterRegistry);
+        Gauge.builder("kvspp.access.index.size", entries, ConcurrentHashMap::size).register(meterRegistry);
+    }
+
+    // Owner IDs of the store, or null if there is no store with this token
+    public Set<UUID> owners(String storeToken) {
+        Entry entry = entries.get(storeToken);
+        if (entry != null) {
+            if (ttlMs <= 0 || System.nanoTime() - entry.expiresAt < 0) {
+                hits.increment();
+                return entry.owners;
+            }
+            entries.remove(storeToken, entry);
+        }
+        misses.increment();
+        long ticket = writeStamp.get();
+        List<UUID> rows = storeRepository.findOwnerIdsByToken(storeToken);
+        if (rows.isEmpty()) {
+            return null;
+        }
+        Set<UUID> owners = Set.copyOf(rows.stream().filter(Objects::nonNull).toList());
+        if (maxEntries > 0) {
+            put(storeToken, new Entry(owners, System.nanoTime() + ttlMs * 1_000_000), ticket);
+        }
+        return owners;
+    }
+
+    public void invalidate(String storeToken) {
+        if (storeToken == null) {
+            return;
+        }
+        remove(storeToken);
+        // Inside a transaction, a load between now and the commit would still see the old rows
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    remove(storeToken);
+                }
+            });
+        }
+    }
+
+    private void remove(String storeToken) {
+        writeStamp.incrementAndGet();
+        entries.remove(storeToken);
+    }
+
+    private void put(String storeToken, Entry entry, long ticket) {
+        if (entries.size() >= maxEntries) {
+            // Drop arbitrary entries down to 90% so this does not run on every load while full
+            int target = maxEntries - Math.max(1, maxEntries / 10);
+            Iterator<String> keys = entries.keySet().iterator();
+            while (entries.size() > target && keys.hasNext()) {
+                keys.next();
+                keys.remove();
+            }
+        }
+        entries.put(storeToken, entry);
+        // An invalidation that raced the load may have missed this entry; undo the put
+        if (writeStamp.get() != ticket) {
+            entries.remove(storeToken, entry);
+        }
+    }
+}
@@ -1,22 +1,55 @@
 package com.kvspp.cloud.server.service;
 
-import com.kvspp.cloud.server.model.Store;
 import com.kvspp.cloud.server.model.User;
-import com.kvspp.cloud.server.repository.StoreRepository;
-import com.kvspp.cloud.server.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class StoreAccessService {
     @Autowired
-    private UserRepository userRepository;
+    private StoreAccessIndex accessIndex;
+    @Autowired
+    private MeterRegistry meterRegistry;
     @Autowired
-    private StoreRepository storeRepository;
+    private ObservationRegistry observationRegistry;
+
+    private Timer allowedTimer;
+    private Timer deniedTimer;
+
+    @PostConstruct
+    public void init() {
+        allowedTimer = Timer.builder("kvspp.access.check").tag("outcome", "allowed")
+                .publishPercentileHistogram().register(meterRegistry);
+        deniedTimer = Timer.builder("kvspp.access.check").tag("outcome", "denied")
+                .publishPercentileHistogram().register(meterRegistry);
+    }
 
-    @Transactional
     public AccessResult checkAccess(User user, String storeToken) {
+        long start = System.nanoTime();
+        Observation observation = Observation.start("kvspp.request.access-check", observationRegistry);
+        AccessResult result;
+        try {
+            result = check(user, storeToken);
+        } catch (RuntimeException e) {
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
+        (result.allowed ? allowedTimer : deniedTimer).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return result;
+    }
+
+    private AccessResult check(User user, String storeToken) {
         if(storeToken != null && storeToken.equals("public")){
             return AccessResult.allowed();
         }
@@ -25,12 +58,12 @@ public class StoreAccessService {
             return AccessResult.denied("Not authenticated", "User is not authenticated");
         }
 
-        Store store = storeRepository.findByTokenWithOwners(storeToken);
-        if (store == null) {
+        Set<UUID> owners = accessIndex.owners(storeToken);
+        if (owners == null) {
             return AccessResult.denied("Store not found", "Store not found");
         }
 
-        if (!store.getOwners().contains(user)) {
+        if (!owners.contains(user.getId())) {
             return AccessResult.denied("Forbidden", "Not an owner of this store");
         }
         return AccessResult.allowed();
@@ -0,0 +1,228 @@
+package com.kvspp.cloud.server.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Serves key scans from a sorted in-memory copy of a store. A new scan gets a snapshot rebuilt
+// from the backend's JSON dump if the store has been written since the last one was taken, or
+// after ttl-ms. Cursors name their snapshot, so the later pages of a scan come from the same
+// snapshot for as long as it is kept (ttl-ms, and within max-bytes), whatever is written.
+@Service
+public class StoreSnapshotService {
+
+    @Value("${kvspp.scan.ttl-ms:10000}")
+    private long ttlMs;
+
+    @Value("${kvspp.scan.max-stores:64}")
+    private int maxStores;
+
+    // Estimated memory for all retained snapshots; the oldest are dropped first
+    @Value("${kvspp.scan.max-bytes:67108864}")
+    private long maxBytes;
+
+    @Autowired
+    private KvsppTcpClientService kvsppTcpClientService;
+    @Autowired
+    private KvsppWriteBehindBuffer writeBehindBuffer;
+    @Autowired
+    private KvsppValueCache valueCache;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Least recently scanned stores are dropped first
+    private final LinkedHashMap<String, Holder> holders = new LinkedHashMap<>(16, 0.75f, true);
+    // Snapshots by ID, oldest first
+    private final LinkedHashMap<Long, Snapshot> retained = new LinkedHashMap<>();
+    private long retainedBytes;
+    private final AtomicLong ids = new AtomicLong();
+
+    public record Snapshot(long id, String storeToken, long version, long builtAt, String[] keys, String[] values,
+                           long bytes) {}
+
+    public record Page(Snapshot snapshot, List<Map.Entry<String, String>> entries, String nextCursor) {}
+
+    // Returns up to limit entries whose key starts with prefix and sorts after the cursor
+    public Page scan(String storeToken, String cursor, int limit, String prefix) throws IOException {
+        Cursor position = cursor == null || cursor.isEmpty() ? null : decodeCursor(cursor);
+        String after = position != null ? position.lastKey() : null;
+        // A cursor whose snapshot has been dropped carries on after its last key in a newer one
+        Snapshot snapshot = position != null ? retained(storeToken, position.snapshotId()) : null;
+        if (snapshot == null) {
+            snapshot = snapshot(storeToken);
+        }
+        String[] keys = snapshot.keys();
+        String from = after != null && after.compareTo(prefix) >= 0 ? after : prefix;
+        int i = Arrays.binarySearch(keys, from);
+        if (i < 0) {
+            i = -i - 1;
+        } else if (from.equals(after)) {
+            i++;
+        }
+        List<Map.Entry<String, String>> entries = new ArrayList<>(Math.min(limit, keys.length));
+        while (i < keys.length && entries.size() < limit && keys[i].startsWith(prefix)) {
+            entries.add(Map.entry(keys[i], snapshot.values()[i]));
+            i++;
+        }
+        boolean more = i < keys.length && keys[i].startsWith(prefix);
+        String nextCursor = more ? encodeCursor(snapshot.id(), entries.get(entries.size() - 1).getKey()) : null;
+        return new Page(snapshot, entries, nextCursor);
+    }
+
+    private Snapshot retained(String storeToken, long snapshotId) {
+        lock.lock();
+        try {
+            Snapshot snapshot = retained.get(snapshotId);
+            return snapshot != null && snapshot.storeToken().equals(storeToken)
+                    && System.currentTimeMillis() - snapshot.builtAt() < ttlMs ? snapshot : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Snapshot snapshot(String storeToken) throws IOException {
+        Holder holder;
+        lock.lock();
+        try {
+            holder = holders.computeIfAbsent(storeToken, t -> new Holder());
+            if (holders.size() > maxStores) {
+                Holder evicted = holders.remove(holders.keySet().iterator().next());
+                drop(retained.get(evicted.latestId));
+            }
+        } finally {
+            lock.unlock();
+        }
+        // One rebuild per store at a time; other scanners of the same store wait for it
+        holder.lock.lock();
+        try {
+            Snapshot current = retained(storeToken, holder.latestId);
+            if (current != null && current.version() == valueCache.writeVersion(storeToken)) {
+                return current;
+            }
+            Snapshot built = build(storeToken);
+            retain(built);
+            holder.latestId = built.id();
+            return built;
+        } finally {
+            holder.lock.unlock();
+        }
+    }
+
+    private void retain(Snapshot snapshot) {
+        lock.lock();
+        try {
+            retained.put(snapshot.id(), snapshot);
+            retainedBytes += snapshot.bytes();
+            // Oldest first: expired snapshots, then as many as needed to get under max-bytes,
+            // but never the one just built
+            long now = System.currentTimeMillis();
+            Iterator<Snapshot> oldest = retained.values().iterator();
+            while (oldest.hasNext()) {
+                Snapshot next = oldest.next();
+                if (next == snapshot || (now - next.builtAt() < ttlMs && retainedBytes <= maxBytes)) {
+                    break;
+                }
+                oldest.remove();
+                retainedBytes -= next.bytes();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with lock held
+    private void drop(Snapshot snapshot) {
+        if (snapshot != null && retained.remove(snapshot.id()) != null) {
+            retainedBytes -= snapshot.bytes();
+        }
+    }
+
+    private Snapshot build(String storeToken) throws IOException {
+        // Read the version first so a write that races the dump makes the snapshot stale
+        long version = valueCache.writeVersion(storeToken);
+        long builtAt = System.currentTimeMillis();
+        writeBehindBuffer.flushAndWait(storeToken);
+        List<String[]> entries = kvsppTcpClientService.sendCommandStreaming(storeToken, "JSON", reply -> {
+            List<String[]> collected = new ArrayList<>();
+            JsonParser parser = objectMapper.createParser(reply);
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                reply.transferTo(OutputStream.nullOutputStream());
+                throw new IOException("Unexpected JSON reply from backend");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if (!"store".equals(field) || parser.currentToken() != JsonToken.START_OBJECT) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String key = parser.currentName();
+                    parser.nextToken();
+                    if ("autosave".equals(key)) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    JsonNode node = objectMapper.readTree(parser);
+                    JsonNode value = node.isObject() && node.has("value") ? node.get("value") : node;
+                    collected.add(new String[]{key, value.isTextual() ? value.asText() : value.toString()});
+                }
+            }
+            reply.transferTo(OutputStream.nullOutputStream());
+            return collected;
+        });
+        entries.sort((a, b) -> a[0].compareTo(b[0]));
+        String[] keys = new String[entries.size()];
+        String[] values = new String[entries.size()];
+        // Two strings (about 40 bytes of headers each, chars as bytes) and two array slots per entry
+        long bytes = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            keys[i] = entries.get(i)[0];
+            values[i] = entries.get(i)[1];
+            bytes += 96 + keys[i].length() + values[i].length();
+        }
+        return new Snapshot(ids.incrementAndGet(), storeToken, version, builtAt, keys, values, bytes);
+    }
+
+    private record Cursor(long snapshotId, String lastKey) {}
+
+    // Cursors carry their snapshot's ID and the last key returned
+    private static String encodeCursor(long snapshotId, String lastKey) {
+        String cursor = snapshotId + ":" + lastKey;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Cursor decodeCursor(String cursor) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = decoded.indexOf(':');
+            return new Cursor(Long.parseLong(decoded.substring(0, separator)), decoded.substring(separator + 1));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+
+    private static final class Holder {
+        private final ReentrantLock lock = new ReentrantLock();
+        // Written under lock; 0 before the first build
+        private volatile long latestId;
+    }
+}
@@ -1,73 +1,302 @@
 package com.kvspp.cloud.server.service;
 
+import com.kvspp.cloud.server.tcp.KvsppBackend;
+import com.kvspp.cloud.server.tcp.KvsppEventLoopGroup;
+import com.kvspp.cloud.server.tcp.KvsppPipelinedClient;
+import com.kvspp.cloud.server.tcp.PipelinedKvsppConnection;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 @Service
 public class TcpProxyService {
-    @Value("${kvspp.tcp.host:localhost}")
-    private String SERVER_HOST;
+    @Value("${kvspp.tcp.connect-timeout-ms:3000}")
+    private int connectTimeoutMs;
 
-    @Value("${kvspp.tcp.port:5555}")
-    private int SERVER_PORT;
+    @Value("${kvspp.tcp.read-timeout-ms:30000}")
+    private int readTimeoutMs;
+
+    @Value("${kvspp.tcp.pipeline.max-batch:128}")
+    private int maxBatch;
+
+    @Value("${kvspp.tcp.pipeline.max-pending:10000}")
+    private int maxPending;
+
+    // "dedicated": one backend connection per WebSocket session.
+    // "shared": sessions are multiplexed over a fixed set of connections per backend.
+    @Value("${kvspp.proxy.backend-mode:dedicated}")
+    private String backendMode;
+
+    @Value("${kvspp.proxy.shared.connections:8}")
+    private int sharedConnections;
+
+    // How many of the shared connections the sessions of one store are spread over
+    @Value("${kvspp.proxy.shared.connections-per-store:2}")
+    private int sharedConnectionsPerStore;
+
+    // Demo sessions get connections of their own, so anonymous traffic never queues ahead of a private store's
+    @Value("${kvspp.proxy.shared.demo-connections:2}")
+    private int sharedDemoConnections;
+
+    @Autowired
+    private KvsppEventLoopGroup eventLoopGroup;
+
+    @Autowired
+    private KvsppBackendRegistry backendRegistry;
+
+    @Autowired
+    private KvsppCommandMetrics commandMetrics;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
 
     private static final String SELECT_CMD_PREFIX = "SELECT ";
+    private static final String DRAIN_COMMAND = "GET __kvspp_drain__";
+
+    private Timer connectTimer;
+    private Timer connectFailedTimer;
+    private Timer selectTimer;
+    private Timer selectFailedTimer;
+
+    private boolean shared;
+    private final ConcurrentHashMap<KvsppBackend, KvsppPipelinedClient> sharedClients = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<KvsppBackend, KvsppPipelinedClient> sharedDemoClients = new ConcurrentHashMap<>();
+    private final AtomicLong sessionCounter = new AtomicLong();
+    // Open sessions by store, so a store moved to another backend can have its sessions closed
+    private final ConcurrentHashMap<String, Set<TcpSession>> sessionsByStore = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        if (!"dedicated".equalsIgnoreCase(backendMode) && !"shared".equalsIgnoreCase(backendMode)) {
+            throw new IllegalArgumentException("kvspp.proxy.backend-mode must be dedicated or shared, got '" + backendMode + "'");
+        }
+        shared = "shared".equalsIgnoreCase(backendMode);
+        connectTimer = sessionTimer("kvspp.proxy.connect", "ok");
+        connectFailedTimer = sessionTimer("kvspp.proxy.connect", "failure");
+        selectTimer = sessionTimer("kvspp.proxy.select", "ok");
+        selectFailedTimer = sessionTimer("kvspp.proxy.select", "failure");
+        Gauge.builder("kvspp.proxy.shared.connections", this, TcpProxyService::openSharedConnections)
+                .description("Open backend connections shared by WebSocket proxy sessions")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sharedClients.values().forEach(KvsppPipelinedClient::close);
+        sharedDemoClients.values().forEach(KvsppPipelinedClient::close);
+    }
+
+    private Timer sessionTimer(String name, String outcome) {
+        return Timer.builder(name).tag("outcome", outcome).publishPercentileHistogram().register(meterRegistry);
+    }
 
     public TcpSession openSession(String storeToken) throws IOException {
-        Socket socket = new Socket(SERVER_HOST, SERVER_PORT);
-        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+        return openSession(storeToken, false);
+    }
+
+    // Demo sessions never share a backend connection with private stores
+    public TcpSession openSession(String storeToken, boolean demo) throws IOException {
+        // A session opened during a move would be bound to the old backend
+        backendRegistry.awaitUnfenced(storeToken, readTimeoutMs);
+        KvsppBackend backend = backendRegistry.backendFor(storeToken);
+        TcpSession session = shared
+                ? openSharedSession(backend, storeToken, demo ? sharedDemoClients : sharedClients,
+                        demo ? sharedDemoConnections : sharedConnections)
+                : openDedicatedSession(backend, storeToken);
+        sessionsByStore.compute(storeToken, (token, sessions) -> {
+            Set<TcpSession> open = sessions != null ? sessions : ConcurrentHashMap.newKeySet();
+            open.add(session);
+            return open;
+        });
+        return session;
+    }
 
-        // initial SELECT <storetoken> command
-        String selectCmd = SELECT_CMD_PREFIX + storeToken + "\r\n";
-        out.write(selectCmd);
-        out.flush();
+    private TcpSession openDedicatedSession(KvsppBackend backend, String storeToken) throws IOException {
+        long start = System.nanoTime();
+        PipelinedKvsppConnection connection;
+        try {
+            connection = PipelinedKvsppConnection.open(backend.host(), backend.port(),
+                    eventLoopGroup.next(), maxBatch, maxPending, connectTimeoutMs, readTimeoutMs);
+        } catch (IOException e) {
+            connectFailedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+        long connected = System.nanoTime();
+        connectTimer.record(connected - start, TimeUnit.NANOSECONDS);
+        try {
+            // initial SELECT <storetoken> command
+            String selectResponse = PipelinedKvsppConnection.await(connection.select(storeToken), readTimeoutMs);
+            (selectResponse.startsWith("ERROR") ? selectFailedTimer : selectTimer)
+                    .record(System.nanoTime() - connected, TimeUnit.NANOSECONDS);
+            return new TcpSession(storeToken, connection, selectResponse, commandMetrics, false, this::forget);
+        } catch (IOException e) {
+            selectFailedTimer.record(System.nanoTime() - connected, TimeUnit.NANOSECONDS);
+            connection.close();
+            throw e;
+        }
+    }
 
-        // Read response to SELECT command
-        String selectResponse = in.readLine();
+    // The session is pinned to one shared connection, so its commands stay in order; the
+    // connection selects the session's store again whenever another store used it in between.
+    // Connections are opened on first use and not timed in kvspp.proxy.connect.
+    private TcpSession openSharedSession(KvsppBackend backend, String storeToken,
+                                         ConcurrentHashMap<KvsppBackend, KvsppPipelinedClient> clients,
+                                         int connections) throws IOException {
+        KvsppPipelinedClient client = clients.computeIfAbsent(backend, b -> new KvsppPipelinedClient(
+                b.host(), b.port(), eventLoopGroup, connections, maxBatch, maxPending, connectTimeoutMs, readTimeoutMs));
+        int spread = Math.max(1, Math.min(sharedConnectionsPerStore, client.size()));
+        int slot = Math.floorMod(storeToken.hashCode() + (int) (sessionCounter.getAndIncrement() % spread), client.size());
+        PipelinedKvsppConnection connection;
+        long start = System.nanoTime();
+        try {
+            connection = client.connection(slot);
+        } catch (IOException e) {
+            connectFailedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+        long selecting = System.nanoTime();
+        try {
+            // Still sent so the client gets the same select_response as on a dedicated connection
+            String selectResponse = PipelinedKvsppConnection.await(connection.select(storeToken), readTimeoutMs);
+            (selectResponse.startsWith("ERROR") ? selectFailedTimer : selectTimer)
+                    .record(System.nanoTime() - selecting, TimeUnit.NANOSECONDS);
+            return new TcpSession(storeToken, connection, selectResponse, commandMetrics, true, this::forget);
+        } catch (IOException e) {
+            selectFailedTimer.record(System.nanoTime() - selecting, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+    }
+
+    private void forget(TcpSession session) {
+        sessionsByStore.computeIfPresent(session.getStoreToken(), (token, sessions) -> {
+            sessions.remove(session);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+
+    // Closes every session of the store once the commands it already sent have been answered.
+    // Used when the store moves to another backend; clients reconnect to the new one.
+    public void closeSessions(String storeToken) throws IOException {
+        Set<TcpSession> sessions = sessionsByStore.get(storeToken);
+        if (sessions == null) {
+            return;
+        }
+        List<CompletableFuture<Void>> drained = new ArrayList<>();
+        for (TcpSession session : List.copyOf(sessions)) {
+            drained.add(session.drainAndClose());
+        }
+        PipelinedKvsppConnection.await(CompletableFuture.allOf(drained.toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> ""), readTimeoutMs);
+    }
 
-        return new TcpSession(socket, in, out, selectResponse);
+    private int openSharedConnections() {
+        int open = 0;
+        for (KvsppPipelinedClient client : sharedClients.values()) {
+            open += client.openConnections();
+        }
+        for (KvsppPipelinedClient client : sharedDemoClients.values()) {
+            open += client.openConnections();
+        }
+        return open;
     }
 
+    // Every line is checked, so a SELECT cannot hide behind a line break
     public boolean isForbiddenCommand(String command, String storeToken) {
         if (command == null) return false;
-        String trimmed = command.trim().toLowerCase();
         String forbidden = SELECT_CMD_PREFIX.trim().toLowerCase();
-        return trimmed.startsWith(forbidden);
+        for (String line : command.split("\\R")) {
+            if (line.trim().toLowerCase().startsWith(forbidden)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     // helper to encapsulate TCP session
     public static class TcpSession implements Closeable {
-        private final Socket socket;
-        private final BufferedReader in;
-        private final BufferedWriter out;
+        private final String storeToken;
+        private final PipelinedKvsppConnection connection;
         private final String selectResponse;
+        private final KvsppCommandMetrics commandMetrics;
+        // Shared connections belong to TcpProxyService and outlive the session
+        private final boolean sharedConnection;
+        private final Consumer<TcpSession> onClose;
+        private volatile boolean closed;
 
-        public TcpSession(Socket socket, BufferedReader in, BufferedWriter out, String selectResponse) {
-            this.socket = socket;
-            this.in = in;
-            this.out = out;
+        public TcpSession(String storeToken, PipelinedKvsppConnection connection, String selectResponse,
+                          KvsppCommandMetrics commandMetrics, boolean sharedConnection,
+                          Consumer<TcpSession> onClose) {
+            this.storeToken = storeToken;
+            this.connection = connection;
             this.selectResponse = selectResponse;
+            this.commandMetrics = commandMetrics;
+            this.sharedConnection = sharedConnection;
+            this.onClose = onClose;
+        }
+
+        // Completes on a backend event loop thread once the reply line arrives
+        public CompletableFuture<String> send(String command) {
+            if (closed) {
+                return CompletableFuture.failedFuture(new IOException("TCP session is closed"));
+            }
+            return commandMetrics.track(storeToken, command, connection.send(storeToken, command));
         }
 
-        public BufferedReader getIn() { return in; }
-        public BufferedWriter getOut() { return out; }
+        // Queues all commands back to back so they go out with as few flushes as possible
+        public List<CompletableFuture<String>> sendAll(List<String> commands) {
+            if (closed) {
+                List<CompletableFuture<String>> failed = new ArrayList<>(commands.size());
+                for (int i = 0; i < commands.size(); i++) {
+                    failed.add(CompletableFuture.failedFuture(new IOException("TCP session is closed")));
+                }
+                return failed;
+            }
+            List<CompletableFuture<String>> replies = connection.sendAll(storeToken, commands);
+            for (int i = 0; i < replies.size(); i++) {
+                replies.set(i, commandMetrics.track(storeToken, commands.get(i), replies.get(i)));
+            }
+            return replies;
+        }
+
+        public String getStoreToken() { return storeToken; }
         public String getSelectResponse() { return selectResponse; }
-        public Socket getSocket() { return socket; }
+        public boolean isOpen() { return !closed && connection.isOpen(); }
 
         @Override
         public void close() throws IOException {
-            try { in.close(); } catch (Exception ignored) {}
-            try { out.close(); } catch (Exception ignored) {}
-            try { socket.close(); } catch (Exception ignored) {}
+            closed = true;
+            if (!sharedConnection) {
+                connection.close();
+            }
+            onClose.accept(this);
+        }
+
+        // Stops taking commands, then closes once everything already queued has been answered:
+        // replies come back in order, so a trailing no-op completes after all of them
+        CompletableFuture<Void> drainAndClose() {
+            closed = true;
+            return connection.send(storeToken, DRAIN_COMMAND).handle((output, error) -> {
+                try {
+                    close();
+                } catch (IOException ignored) {
+                }
+                return null;
+            });
         }
     }
 }
-
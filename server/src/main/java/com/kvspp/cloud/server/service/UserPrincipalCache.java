@@ -0,0 +1,119 @@
+package com.kvspp.cloud.server.service;
+
+import com.kvspp.cloud.server.model.Store;
+import com.kvspp.cloud.server.model.User;
+import com.kvspp.cloud.server.repository.UserRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Authenticated users with their stores and co-owners, as loaded by findByIdWithStores, so the
+// JWT filter and the WebSocket handshake do not run that join on every request. Entries expire
+// after ttl-ms and are dropped whenever the user's stores or their owners change. Cached users
+// are shared between requests and must be treated as read-only.
+@Service
+public class UserPrincipalCache {
+
+    @Value("${kvspp.principal-cache.max-entries:10000}")
+    private int maxEntries;
+
+    @Value("${kvspp.principal-cache.ttl-ms:60000}")
+    private long ttlMs;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final ConcurrentHashMap<UUID, Entry> entries = new ConcurrentHashMap<>();
+    // Bumped on every invalidation; a load started before a bump is not cached
+    private final AtomicLong writeStamp = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private record Entry(User user, long expiresAt) {}
+
+    @PostConstruct
+    public void init() {
+        FunctionCounter.builder("kvspp.principal.cache.hits", hits, LongAdder::sum).register(meterRegistry);
+        FunctionCounter.builder("kvspp.principal.cache.misses", misses, LongAdder::sum).register(meterRegistry);
+        Gauge.builder("kvspp.principal.cache.size", entries, ConcurrentHashMap::size).register(meterRegistry);
+    }
+
+    public Optional<User> find(UUID userId) {
+        Entry entry = entries.get(userId);
+        if (entry != null) {
+            if (System.nanoTime() - entry.expiresAt < 0) {
+                hits.increment();
+                return Optional.of(entry.user);
+            }
+            entries.remove(userId, entry);
+        }
+        misses.increment();
+        long ticket = writeStamp.get();
+        Optional<User> user = userRepository.findByIdWithStores(userId);
+        if (user.isPresent() && maxEntries > 0 && ttlMs > 0) {
+            put(userId, new Entry(user.get(), System.nanoTime() + ttlMs * 1_000_000), ticket);
+        }
+        return user;
+    }
+
+    public void invalidate(UUID userId) {
+        if (userId == null) {
+            return;
+        }
+        remove(userId);
+        // Inside a transaction, a load between now and the commit would still see the old rows
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    remove(userId);
+                }
+            });
+        }
+    }
+
+    // For changes to a store's name or owners, which show up in every owner's cached store list
+    public void invalidateOwners(Store store) {
+        for (User owner : store.getOwners()) {
+            invalidate(owner.getId());
+        }
+    }
+
+    private void remove(UUID userId) {
+        writeStamp.incrementAndGet();
+        entries.remove(userId);
+    }
+
+    private void put(UUID userId, Entry entry, long ticket) {
+        if (entries.size() >= maxEntries) {
+            // Drop arbitrary entries down to 90% so this does not run on every load while full
+            int target = maxEntries - Math.max(1, maxEntries / 10);
+            Iterator<UUID> keys = entries.keySet().iterator();
+            while (entries.size() > target && keys.hasNext()) {
+                keys.next();
+                keys.remove();
+            }
+        }
+        entries.put(userId, entry);
+        // An invalidation that raced the load may have missed this entry; undo the put
+        if (writeStamp.get() != ticket) {
+            entries.remove(userId, entry);
+        }
+    }
+}
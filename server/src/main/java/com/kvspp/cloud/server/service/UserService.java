@@ -19,6 +19,8 @@ import java.util.Optional;
 public class UserService implements OAuth2UserService<OAuth2UserRequest, OAuth2User> {
     @Autowired
     private UserRepository userRepository;
+    @Autowired
+    private UserPrincipalCache principalCache;
 
     @Override
     public OAuth2User loadUser(OAuth2UserRequest userRequest) throws OAuth2AuthenticationException {
@@ -42,6 +44,8 @@ public class UserService implements OAuth2UserService<OAuth2UserRequest, OAuth2U
         user.setProfilePicture(picture);
         // System.out.println("UserService: Saving user " + user.getEmail());
         userRepository.save(user);
+        // Name and picture may have changed since the cached copy was loaded
+        principalCache.invalidate(user.getId());
 
         return new DefaultOAuth2User(
                 Collections.singleton(new SimpleGrantedAuthority("ROLE_USER")),
@@ -65,5 +69,7 @@ public class UserService implements OAuth2UserService<OAuth2UserRequest, OAuth2U
         user.setProfilePicture(picture);
         // System.out.println("UserService: Saving user " + user.getEmail());
         userRepository.save(user);
+        // Name and picture may have changed since the cached copy was loaded
+        principalCache.invalidate(user.getId());
     }
 }
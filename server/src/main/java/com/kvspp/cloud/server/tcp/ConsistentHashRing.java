@@ -0,0 +1,68 @@
+package com.kvspp.cloud.server.tcp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Immutable consistent-hash ring mapping store tokens to backends. Each backend owns
+// virtualNodes points on the ring, so adding a node only moves roughly 1/N of the stores.
+public final class ConsistentHashRing {
+
+    private final TreeMap<Long, KvsppBackend> ring = new TreeMap<>();
+    private final List<KvsppBackend> nodes;
+    private final int virtualNodes;
+
+    public ConsistentHashRing(Collection<KvsppBackend> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("Hash ring needs at least one backend");
+        }
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("Hash ring needs at least one virtual node per backend");
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+        this.virtualNodes = virtualNodes;
+        for (KvsppBackend node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    public KvsppBackend nodeFor(String storeToken) {
+        Map.Entry<Long, KvsppBackend> entry = ring.ceilingEntry(hash(storeToken));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    public ConsistentHashRing withNode(KvsppBackend node) {
+        List<KvsppBackend> grown = new ArrayList<>(nodes);
+        grown.add(node);
+        return new ConsistentHashRing(grown, virtualNodes);
+    }
+
+    public boolean contains(KvsppBackend node) {
+        return nodes.contains(node);
+    }
+
+    public List<KvsppBackend> getNodes() {
+        return nodes;
+    }
+
+    // 64-bit FNV-1a with a murmur3 finalizer so similar tokens land far apart on the ring
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
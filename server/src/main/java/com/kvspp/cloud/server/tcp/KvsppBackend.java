@@ -0,0 +1,33 @@
+package com.kvspp.cloud.server.tcp;
+
+// Address of one KVS++ instance.
+public record KvsppBackend(String host, int port) {
+
+    public KvsppBackend {
+        if (host == null || host.isBlank()) {
+            throw new IllegalArgumentException("Backend host is required");
+        }
+        if (port < 1 || port > 65535) {
+            throw new IllegalArgumentException("Invalid backend port: " + port);
+        }
+    }
+
+    // Parses "host:port"
+    public static KvsppBackend parse(String spec) {
+        String trimmed = spec.trim();
+        int colon = trimmed.lastIndexOf(':');
+        if (colon <= 0 || colon == trimmed.length() - 1) {
+            throw new IllegalArgumentException("Backend must be host:port, got '" + spec + "'");
+        }
+        try {
+            return new KvsppBackend(trimmed.substring(0, colon), Integer.parseInt(trimmed.substring(colon + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid backend port in '" + spec + "'");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
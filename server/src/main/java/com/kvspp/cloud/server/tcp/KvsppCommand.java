@@ -0,0 +1,31 @@
+package com.kvspp.cloud.server.tcp;
+
+// One protocol line kept as its parts, e.g. ("SET", key, value), so a batch can be encoded
+// straight into the connection's write buffer without building each line as a String first
+public record KvsppCommand(String command, String key, String value) {
+
+    public static KvsppCommand get(String key) {
+        return new KvsppCommand("GET", key, null);
+    }
+
+    public static KvsppCommand set(String key, String value) {
+        return new KvsppCommand("SET", key, value);
+    }
+
+    public static KvsppCommand delete(String key) {
+        return new KvsppCommand("DELETE", key, null);
+    }
+
+    // The line as it goes on the wire, without the newline; for logs and error messages
+    @Override
+    public String toString() {
+        StringBuilder line = new StringBuilder(command);
+        if (key != null) {
+            line.append(' ').append(key);
+        }
+        if (value != null) {
+            line.append(' ').append(value);
+        }
+        return line.toString();
+    }
+}
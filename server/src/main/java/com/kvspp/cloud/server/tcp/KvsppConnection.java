@@ -0,0 +1,237 @@
+package com.kvspp.cloud.server.tcp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// A long-lived connection to the KVS++ TCP server. Remembers which store is
+// currently selected so callers only pay for a SELECT when the store changes.
+public class KvsppConnection implements Closeable {
+    private static final String SELECT_CMD = "SELECT";
+    private static final String PROBE_CMD = "GET";
+    private static final String PROBE_KEY = "__kvspp_probe__";
+
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    // Reused for every command line; heap-backed because it is written to a socket stream
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(1024);
+    private final byte[] readBuffer = new byte[8192];
+    private int readPos;
+    private int readLimit;
+    private byte[] lineBuffer = new byte[256];
+    // A streamed reply that has not been read to its newline yet
+    private boolean replyOpen;
+
+    private String selectedStore;
+    private volatile long lastUsedAt;
+    private volatile boolean broken;
+
+    private KvsppConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = socket.getInputStream();
+        this.out = socket.getOutputStream();
+        this.lastUsedAt = System.currentTimeMillis();
+    }
+
+    public static KvsppConnection open(String host, int port, int connectTimeoutMs, int readTimeoutMs) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.setSoTimeout(readTimeoutMs);
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+            return new KvsppConnection(socket);
+        } catch (IOException e) {
+            try { socket.close(); } catch (Exception ignored) {}
+            throw e;
+        }
+    }
+
+    public void select(String storeToken) throws IOException {
+        if (storeToken.equals(selectedStore)) {
+            return;
+        }
+        selectedStore = null;
+        String selectResponse = execute(SELECT_CMD, storeToken, null);
+        if (selectResponse == null || selectResponse.startsWith("ERROR")) {
+            throw new IOException("Failed to select store: " + selectResponse);
+        }
+        selectedStore = storeToken;
+    }
+
+    // Re-selects the current store to prove the connection is still usable. A connection that
+    // never selected a store is probed with a GET instead; any reply line will do.
+    public void validate() throws IOException {
+        if (selectedStore == null) {
+            if (execute(PROBE_CMD, PROBE_KEY, null) == null) {
+                throw new IOException("Backend closed the connection");
+            }
+            return;
+        }
+        String storeToken = selectedStore;
+        selectedStore = null;
+        select(storeToken);
+    }
+
+    public String execute(String command) throws IOException {
+        return execute(command, null, null);
+    }
+
+    public String execute(String command, String key, String value) throws IOException {
+        try {
+            writeLine(command, key, value);
+            String response = readLine();
+            lastUsedAt = System.currentTimeMillis();
+            return response;
+        } catch (IOException e) {
+            broken = true;
+            throw e;
+        }
+    }
+
+    private void writeLine(String command, String key, String value) throws IOException {
+        if (!KvsppLineCodec.isSingleLine(command, key, value)) {
+            throw new IllegalArgumentException("Command must not contain line breaks");
+        }
+        writeBuffer.clear();
+        writeBuffer = KvsppLineCodec.ensureRemaining(writeBuffer, KvsppLineCodec.encodedLength(command, key, value));
+        KvsppLineCodec.encode(writeBuffer, command, key, value);
+        out.write(writeBuffer.array(), 0, writeBuffer.position());
+        out.flush();
+    }
+
+    // Sends a command and returns its reply line as a stream, for replies too large to hold
+    // as one String. The stream ends at the newline; closing it early makes the connection
+    // unusable, so the pool discards it.
+    public InputStream executeStreaming(String command) throws IOException {
+        try {
+            writeLine(command, null, null);
+        } catch (IOException e) {
+            broken = true;
+            throw e;
+        }
+        replyOpen = true;
+        return new ReplyStream();
+    }
+
+    private String readLine() throws IOException {
+        int length = 0;
+        int b;
+        while ((b = readByte()) != -1) {
+            if (b == '\n') {
+                return KvsppLineCodec.decode(lineBuffer, 0, length);
+            }
+            if (length == lineBuffer.length) {
+                lineBuffer = Arrays.copyOf(lineBuffer, length * 2);
+            }
+            lineBuffer[length++] = (byte) b;
+        }
+        // Backend closed the connection
+        broken = true;
+        return null;
+    }
+
+    private int readByte() throws IOException {
+        if (readPos == readLimit && !fill()) {
+            return -1;
+        }
+        return readBuffer[readPos++] & 0xff;
+    }
+
+    private boolean fill() throws IOException {
+        int read = in.read(readBuffer, 0, readBuffer.length);
+        if (read <= 0) {
+            return false;
+        }
+        readPos = 0;
+        readLimit = read;
+        return true;
+    }
+
+    public String getSelectedStore() { return selectedStore; }
+    public long getLastUsedAt() { return lastUsedAt; }
+
+    public boolean isUsable() {
+        return !broken && !replyOpen && socket.isConnected() && !socket.isClosed()
+                && !socket.isInputShutdown() && !socket.isOutputShutdown();
+    }
+
+    @Override
+    public void close() {
+        broken = true;
+        try { socket.close(); } catch (Exception ignored) {}
+    }
+
+    private final class ReplyStream extends InputStream {
+        private boolean done;
+
+        @Override
+        public int read() throws IOException {
+            if (done) {
+                return -1;
+            }
+            ensureData();
+            int b = readBuffer[readPos++] & 0xff;
+            if (b == '\n') {
+                finish();
+                return -1;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] dst, int off, int len) throws IOException {
+            if (done) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            ensureData();
+            int end = Math.min(readLimit, readPos + len);
+            for (int i = readPos; i < end; i++) {
+                if (readBuffer[i] == '\n') {
+                    int n = i - readPos;
+                    System.arraycopy(readBuffer, readPos, dst, off, n);
+                    readPos = i + 1;
+                    finish();
+                    return n > 0 ? n : -1;
+                }
+            }
+            int n = end - readPos;
+            System.arraycopy(readBuffer, readPos, dst, off, n);
+            readPos = end;
+            return n;
+        }
+
+        private void ensureData() throws IOException {
+            try {
+                if (readPos == readLimit && !fill()) {
+                    throw new IOException("Backend closed the connection mid-reply");
+                }
+            } catch (IOException e) {
+                broken = true;
+                throw e;
+            }
+        }
+
+        private void finish() {
+            done = true;
+            replyOpen = false;
+            lastUsedAt = System.currentTimeMillis();
+        }
+
+        @Override
+        public void close() {
+            if (!done) {
+                broken = true;
+            }
+        }
+    }
+}
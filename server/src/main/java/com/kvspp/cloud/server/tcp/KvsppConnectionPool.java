@@ -0,0 +1,182 @@
+package com.kvspp.cloud.server.tcp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Bounded pool of KvsppConnections to a single KVS++ backend.
+public class KvsppConnectionPool implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(KvsppConnectionPool.class);
+
+    private final String host;
+    private final int port;
+    private final KvsppPoolSettings settings;
+
+    // Most recently released connections sit at the head
+    private final LinkedBlockingDeque<KvsppConnection> idle = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+    private final AtomicInteger total = new AtomicInteger();
+    private final ScheduledExecutorService maintenance;
+    private volatile boolean closed;
+
+    public KvsppConnectionPool(String host, int port, KvsppPoolSettings settings) {
+        this.host = host;
+        this.port = port;
+        this.settings = settings;
+        this.permits = new Semaphore(settings.maxSize(), true);
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "kvspp-pool-" + host + ":" + port);
+            t.setDaemon(true);
+            return t;
+        });
+        this.maintenance.scheduleWithFixedDelay(this::maintain, 0,
+                settings.evictionIntervalMs(), TimeUnit.MILLISECONDS);
+    }
+
+    // Borrows a connection with storeToken already selected. Must be handed back via release().
+    public KvsppConnection borrow(String storeToken) throws IOException {
+        if (closed) {
+            throw new IOException("Connection pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(settings.borrowTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for a backend connection to " + host + ":" + port);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a backend connection", e);
+        }
+
+        KvsppConnection connection = null;
+        try {
+            connection = takeIdle(storeToken);
+            if (connection == null) {
+                connection = create();
+            }
+            connection.select(storeToken);
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            if (connection != null) {
+                destroy(connection);
+            }
+            permits.release();
+            throw e;
+        }
+    }
+
+    public void release(KvsppConnection connection) {
+        try {
+            if (closed || !connection.isUsable()) {
+                destroy(connection);
+            } else {
+                idle.offerFirst(connection);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private KvsppConnection takeIdle(String storeToken) {
+        // Prefer a connection that already has this store selected
+        for (Iterator<KvsppConnection> it = idle.iterator(); it.hasNext(); ) {
+            KvsppConnection candidate = it.next();
+            if (storeToken.equals(candidate.getSelectedStore()) && idle.removeFirstOccurrence(candidate)) {
+                if (isHealthy(candidate)) {
+                    return candidate;
+                }
+                destroy(candidate);
+            }
+        }
+        KvsppConnection candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            if (isHealthy(candidate)) {
+                return candidate;
+            }
+            destroy(candidate);
+        }
+        return null;
+    }
+
+    private boolean isHealthy(KvsppConnection connection) {
+        if (!connection.isUsable()) {
+            return false;
+        }
+        if (System.currentTimeMillis() - connection.getLastUsedAt() < settings.validationIntervalMs()) {
+            return true;
+        }
+        try {
+            connection.validate();
+            return true;
+        } catch (IOException e) {
+            logger.debug("Discarding stale backend connection: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Counted before it is open, so maintain() also sees connections that are still opening
+    private KvsppConnection create() throws IOException {
+        total.incrementAndGet();
+        try {
+            return KvsppConnection.open(host, port, settings.connectTimeoutMs(), settings.readTimeoutMs());
+        } catch (IOException | RuntimeException e) {
+            total.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void destroy(KvsppConnection connection) {
+        connection.close();
+        total.decrementAndGet();
+    }
+
+    // Evicts idle connections past their timeout and tops the pool back up to minSize
+    private void maintain() {
+        if (closed) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Iterator<KvsppConnection> it = idle.descendingIterator(); it.hasNext(); ) {
+            KvsppConnection connection = it.next();
+            boolean expired = now - connection.getLastUsedAt() > settings.idleTimeoutMs()
+                    && total.get() > settings.minSize();
+            if ((expired || !connection.isUsable()) && idle.removeFirstOccurrence(connection)) {
+                destroy(connection);
+            }
+        }
+        // Opening takes a permit like borrow() does, and a borrower only opens a connection when
+        // none is idle, so together they never pass maxSize
+        while (!closed && total.get() < settings.minSize() && permits.tryAcquire()) {
+            try {
+                idle.offerLast(create());
+            } catch (IOException e) {
+                logger.warn("Could not pre-open backend connection to " + host + ":" + port + ": " + e.getMessage());
+                return;
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    public int getTotalCount() { return total.get(); }
+    public int getIdleCount() { return idle.size(); }
+
+    @Override
+    public void close() {
+        closed = true;
+        maintenance.shutdownNow();
+        KvsppConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            destroy(connection);
+        }
+    }
+}
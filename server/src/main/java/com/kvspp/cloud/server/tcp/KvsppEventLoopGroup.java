@@ -0,0 +1,132 @@
+package com.kvspp.cloud.server.tcp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A few selector threads that drive every non-blocking backend connection.
+public class KvsppEventLoopGroup implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(KvsppEventLoopGroup.class);
+    private static final long TICK_MS = 250;
+
+    private final EventLoop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public KvsppEventLoopGroup(int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Event loop group needs at least one thread");
+        }
+        loops = new EventLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new EventLoop("kvspp-event-loop-" + i);
+        }
+    }
+
+    public EventLoop next() {
+        return loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+    }
+
+    @Override
+    public void close() {
+        for (EventLoop loop : loops) {
+            loop.close();
+        }
+    }
+
+    public static final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+        private volatile boolean closed;
+
+        private EventLoop(String name) throws IOException {
+            this.selector = Selector.open();
+            this.thread = Thread.ofPlatform().daemon().name(name).start(this);
+        }
+
+        public void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        public boolean inEventLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+        void register(SocketChannel channel, PipelinedKvsppConnection connection) {
+            execute(() -> {
+                try {
+                    connection.attach(channel.register(selector, SelectionKey.OP_READ, connection));
+                } catch (ClosedChannelException e) {
+                    connection.fail(e);
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            long lastTick = System.currentTimeMillis();
+            while (!closed) {
+                try {
+                    selector.select(TICK_MS);
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        PipelinedKvsppConnection connection = (PipelinedKvsppConnection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                connection.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        } catch (CancelledKeyException e) {
+                            connection.fail(new IOException("Backend connection is closed"));
+                        } catch (IOException e) {
+                            connection.fail(e);
+                        }
+                    }
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now - lastTick >= TICK_MS) {
+                        lastTick = now;
+                        for (SelectionKey key : selector.keys()) {
+                            if (key.isValid()) {
+                                ((PipelinedKvsppConnection) key.attachment()).onTick(now);
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    logger.error("Unexpected error in backend event loop: " + e.getMessage(), e);
+                }
+            }
+            try { selector.close(); } catch (IOException ignored) {}
+        }
+
+        private void close() {
+            closed = true;
+            selector.wakeup();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.kvspp.cloud.server.tcp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Encoder/decoder for the KVS++ line protocol, shared by the pooled and pipelined connections.
+// Commands are written as UTF-8 straight into the caller's buffer, without building the line
+// as a String or byte[] first. Fixed replies decode to shared constants.
+public final class KvsppLineCodec {
+
+    public static final String OK = "OK";
+    public static final String NOT_FOUND = "NOT_FOUND";
+
+    private static final byte[] OK_BYTES = OK.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NOT_FOUND_BYTES = NOT_FOUND.getBytes(StandardCharsets.US_ASCII);
+
+    private KvsppLineCodec() {}
+
+    // Bytes needed for "command[ key[ value]]\n"; key and value may be null
+    public static int encodedLength(String command, String key, String value) {
+        int length = utf8Length(command) + 1;
+        if (key != null) {
+            length += utf8Length(key) + 1;
+        }
+        if (value != null) {
+            length += utf8Length(value) + 1;
+        }
+        return length;
+    }
+
+    // A '\r' or '\n' inside a part would end the line early and put an extra command on the
+    // wire, whose reply would then be matched to the wrong caller
+    public static boolean isSingleLine(String command, String key, String value) {
+        return isSingleLine(command) && isSingleLine(key) && isSingleLine(value);
+    }
+
+    public static boolean isSingleLine(String s) {
+        if (s == null) {
+            return true;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\n' || c == '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Appends one command line; the buffer must have encodedLength() bytes remaining and the
+    // parts must pass isSingleLine()
+    public static void encode(ByteBuffer out, String command, String key, String value) {
+        putUtf8(out, command);
+        if (key != null) {
+            out.put((byte) ' ');
+            putUtf8(out, key);
+        }
+        if (value != null) {
+            out.put((byte) ' ');
+            putUtf8(out, value);
+        }
+        out.put((byte) '\n');
+    }
+
+    // Returns a buffer with room for `needed` more bytes, keeping the current contents
+    public static ByteBuffer ensureRemaining(ByteBuffer buffer, int needed) {
+        if (buffer.remaining() >= needed) {
+            return buffer;
+        }
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + needed);
+        ByteBuffer grown = buffer.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    // Decodes one reply line without its '\n'; a trailing '\r' is dropped
+    public static String decode(byte[] line, int offset, int length) {
+        if (length > 0 && line[offset + length - 1] == '\r') {
+            length--;
+        }
+        if (matches(line, offset, length, OK_BYTES)) {
+            return OK;
+        }
+        if (matches(line, offset, length, NOT_FOUND_BYTES)) {
+            return NOT_FOUND;
+        }
+        return new String(line, offset, length, StandardCharsets.UTF_8);
+    }
+
+    private static boolean matches(byte[] line, int offset, int length, byte[] expected) {
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (line[offset + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int utf8Length(String s) {
+        int length = s.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes += 1;
+                } else if (Character.isSurrogate(c)) {
+                    // A pair is 4 bytes for 2 chars; an unpaired surrogate becomes a single '?'
+                    if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                        bytes += 2;
+                        i++;
+                    }
+                } else {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    // Unpaired surrogates are written as '?', matching String.getBytes(UTF_8)
+    static void putUtf8(ByteBuffer out, String s) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xc0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    out.put((byte) (0xf0 | (cp >> 18)));
+                    out.put((byte) (0x80 | ((cp >> 12) & 0x3f)));
+                    out.put((byte) (0x80 | ((cp >> 6) & 0x3f)));
+                    out.put((byte) (0x80 | (cp & 0x3f)));
+                } else {
+                    out.put((byte) '?');
+                }
+            } else {
+                out.put((byte) (0xe0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                out.put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+    }
+}
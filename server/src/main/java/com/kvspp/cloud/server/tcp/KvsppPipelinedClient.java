@@ -0,0 +1,143 @@
+package com.kvspp.cloud.server.tcp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Spreads commands over a small, fixed set of pipelined connections. A store always
+// maps to the same connection, which keeps its commands ordered and avoids SELECT churn.
+public class KvsppPipelinedClient implements Closeable {
+
+    private final String host;
+    private final int port;
+    private final KvsppEventLoopGroup eventLoopGroup;
+    private final int maxBatch;
+    private final int maxPending;
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+
+    private final PipelinedKvsppConnection[] connections;
+    private final ReentrantLock[] locks;
+    private volatile boolean closed;
+
+    public KvsppPipelinedClient(String host, int port, KvsppEventLoopGroup eventLoopGroup, int connectionCount,
+                                int maxBatch, int maxPending, int connectTimeoutMs, int readTimeoutMs) {
+        if (connectionCount < 1) {
+            throw new IllegalArgumentException("Pipelined client needs at least one connection");
+        }
+        this.host = host;
+        this.port = port;
+        this.eventLoopGroup = eventLoopGroup;
+        this.maxBatch = maxBatch;
+        this.maxPending = maxPending;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.connections = new PipelinedKvsppConnection[connectionCount];
+        this.locks = new ReentrantLock[connectionCount];
+        for (int i = 0; i < connectionCount; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public CompletableFuture<String> send(String storeToken, String command) {
+        try {
+            return connectionFor(storeToken).send(storeToken, command);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public CompletableFuture<String> send(String storeToken, String command, String key, String value) {
+        try {
+            return connectionFor(storeToken).send(storeToken, command, key, value);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // All commands land on the store's connection in order and are flushed together
+    public List<CompletableFuture<String>> sendAll(String storeToken, List<String> commands) {
+        try {
+            return connectionFor(storeToken).sendAll(storeToken, commands);
+        } catch (IOException e) {
+            List<CompletableFuture<String>> failed = new ArrayList<>(commands.size());
+            for (int i = 0; i < commands.size(); i++) {
+                failed.add(CompletableFuture.failedFuture(e));
+            }
+            return failed;
+        }
+    }
+
+    public List<CompletableFuture<String>> sendBatch(String storeToken, List<KvsppCommand> commands) {
+        try {
+            return connectionFor(storeToken).sendBatch(storeToken, commands);
+        } catch (IOException e) {
+            List<CompletableFuture<String>> failed = new ArrayList<>(commands.size());
+            for (int i = 0; i < commands.size(); i++) {
+                failed.add(CompletableFuture.failedFuture(e));
+            }
+            return failed;
+        }
+    }
+
+    private PipelinedKvsppConnection connectionFor(String storeToken) throws IOException {
+        return connection(Math.floorMod(storeToken.hashCode(), connections.length));
+    }
+
+    // The connection in the given slot, reopened if it has failed. Callers that need their
+    // commands kept in order must stick to one slot.
+    public PipelinedKvsppConnection connection(int slot) throws IOException {
+        PipelinedKvsppConnection connection = connections[slot];
+        if (connection != null && connection.isOpen()) {
+            return connection;
+        }
+        locks[slot].lock();
+        try {
+            if (closed) {
+                throw new IOException("Pipelined client is closed");
+            }
+            connection = connections[slot];
+            if (connection == null || !connection.isOpen()) {
+                connection = PipelinedKvsppConnection.open(host, port, eventLoopGroup.next(),
+                        maxBatch, maxPending, connectTimeoutMs, readTimeoutMs);
+                connections[slot] = connection;
+            }
+            return connection;
+        } finally {
+            locks[slot].unlock();
+        }
+    }
+
+    public int size() {
+        return connections.length;
+    }
+
+    public int openConnections() {
+        int open = 0;
+        for (PipelinedKvsppConnection connection : connections) {
+            if (connection != null && connection.isOpen()) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (int i = 0; i < connections.length; i++) {
+            locks[i].lock();
+            try {
+                if (connections[i] != null) {
+                    connections[i].close();
+                    connections[i] = null;
+                }
+            } finally {
+                locks[i].unlock();
+            }
+        }
+    }
+}
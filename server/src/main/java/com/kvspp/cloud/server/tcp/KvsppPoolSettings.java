@@ -0,0 +1,21 @@
+package com.kvspp.cloud.server.tcp;
+
+public record KvsppPoolSettings(
+        int minSize,
+        int maxSize,
+        long idleTimeoutMs,
+        long borrowTimeoutMs,
+        long validationIntervalMs,
+        long evictionIntervalMs,
+        int connectTimeoutMs,
+        int readTimeoutMs) {
+
+    public KvsppPoolSettings {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool max size must be at least 1");
+        }
+        if (minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Pool min size must be between 0 and max size");
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package com.kvspp.cloud.server.tcp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A single non-blocking backend connection shared by many callers. Commands are queued,
+// written in batches by the owning event loop, and replies are matched back to callers
+// in FIFO order.
+public class PipelinedKvsppConnection implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PipelinedKvsppConnection.class);
+    private static final String SELECT_CMD = "SELECT";
+    private static final int BUFFER_SIZE = 16384;
+
+    private final SocketChannel channel;
+    private final KvsppEventLoopGroup.EventLoop loop;
+    private final int maxBatch;
+    private final int maxPending;
+    private final long readTimeoutMs;
+
+    private final ConcurrentLinkedQueue<PendingCommand> submitted = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger submittedCount = new AtomicInteger();
+    private final ConcurrentLinkedQueue<PendingCommand> inFlight = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    // Everything below is only touched by the event loop thread
+    private SelectionKey key;
+    // Direct buffers so the channel does not copy through a temporary buffer on every call
+    private ByteBuffer outBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer inBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private byte[] lineBuffer = new byte[256];
+    private int lineLength;
+    private String selectedStore;
+    // SELECT currently on the wire; nothing else is written until its reply arrives
+    private PendingCommand awaitingSelect;
+
+    private volatile boolean closed;
+
+    private PipelinedKvsppConnection(SocketChannel channel, KvsppEventLoopGroup.EventLoop loop,
+                                     int maxBatch, int maxPending, long readTimeoutMs) {
+        this.channel = channel;
+        this.loop = loop;
+        this.maxBatch = maxBatch;
+        this.maxPending = maxPending;
+        this.readTimeoutMs = readTimeoutMs;
+    }
+
+    public static PipelinedKvsppConnection open(String host, int port, KvsppEventLoopGroup.EventLoop loop,
+                                                int maxBatch, int maxPending,
+                                                int connectTimeoutMs, int readTimeoutMs) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().setKeepAlive(true);
+            channel.socket().connect(new InetSocketAddress(host, port), connectTimeoutMs);
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            try { channel.close(); } catch (Exception ignored) {}
+            throw e;
+        }
+        PipelinedKvsppConnection connection = new PipelinedKvsppConnection(channel, loop, maxBatch, maxPending, readTimeoutMs);
+        loop.register(channel, connection);
+        return connection;
+    }
+
+    public CompletableFuture<String> send(String storeToken, String command) {
+        return enqueue(new PendingCommand(storeToken, command, null, null, false));
+    }
+
+    // Same as send(), but the line is encoded from its parts, e.g. ("SET", key, value)
+    public CompletableFuture<String> send(String storeToken, String command, String key, String value) {
+        return enqueue(new PendingCommand(storeToken, command, key, value, false));
+    }
+
+    // Queues all commands back to back so they are written with as few flushes as possible
+    public List<CompletableFuture<String>> sendAll(String storeToken, List<String> commands) {
+        List<CompletableFuture<String>> futures = new ArrayList<>(commands.size());
+        for (String command : commands) {
+            futures.add(enqueue(new PendingCommand(storeToken, command, null, null, false), false));
+        }
+        scheduleDrain();
+        return futures;
+    }
+
+    // Same as sendAll(), with every line encoded from its parts
+    public List<CompletableFuture<String>> sendBatch(String storeToken, List<KvsppCommand> commands) {
+        List<CompletableFuture<String>> futures = new ArrayList<>(commands.size());
+        for (KvsppCommand command : commands) {
+            futures.add(enqueue(new PendingCommand(storeToken, command.command(), command.key(), command.value(), false), false));
+        }
+        scheduleDrain();
+        return futures;
+    }
+
+    // Explicitly selects a store and completes with the raw SELECT reply, including ERROR replies.
+    public CompletableFuture<String> select(String storeToken) {
+        return enqueue(new PendingCommand(storeToken, SELECT_CMD, storeToken, null, true));
+    }
+
+    private CompletableFuture<String> enqueue(PendingCommand pending) {
+        return enqueue(pending, true);
+    }
+
+    private CompletableFuture<String> enqueue(PendingCommand pending, boolean drainNow) {
+        if (!KvsppLineCodec.isSingleLine(pending.command, pending.key, pending.value)) {
+            pending.future.completeExceptionally(new IllegalArgumentException("Command must not contain line breaks"));
+            return pending.future;
+        }
+        if (closed) {
+            pending.future.completeExceptionally(new IOException("Backend connection is closed"));
+            return pending.future;
+        }
+        if (submittedCount.incrementAndGet() > maxPending) {
+            submittedCount.decrementAndGet();
+            pending.future.completeExceptionally(new IOException("Backend command queue is full"));
+            return pending.future;
+        }
+        submitted.add(pending);
+        if (closed) {
+            // Raced with close(); make sure nobody waits forever
+            failPending(new IOException("Backend connection is closed"));
+        } else if (drainNow) {
+            scheduleDrain();
+        }
+        return pending.future;
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            loop.execute(this::drain);
+        }
+    }
+
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    private void drain() {
+        drainScheduled.set(false);
+        if (closed || key == null) {
+            if (key == null && !closed) {
+                // Registration has not run yet; it is queued ahead of us, so retry
+                scheduleDrain();
+            }
+            return;
+        }
+        int written = 0;
+        PendingCommand pending;
+        while (awaitingSelect == null && written < maxBatch && (pending = submitted.poll()) != null) {
+            submittedCount.decrementAndGet();
+            if (pending.explicitSelect) {
+                writeSelect(pending, null);
+            } else if (!pending.storeToken.equals(selectedStore)) {
+                // Switching stores is a barrier: the SELECT must succeed before
+                // any command for the new store goes on the wire
+                writeSelect(new PendingCommand(pending.storeToken, SELECT_CMD, pending.storeToken, null, true), pending);
+            } else {
+                write(pending);
+            }
+            written++;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        if (awaitingSelect == null && !submitted.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    private void writeSelect(PendingCommand select, PendingCommand blocked) {
+        selectedStore = null;
+        select.blocked = blocked;
+        awaitingSelect = select;
+        write(select);
+    }
+
+    private void write(PendingCommand pending) {
+        int needed = KvsppLineCodec.encodedLength(pending.command, pending.key, pending.value);
+        outBuffer = KvsppLineCodec.ensureRemaining(outBuffer, needed);
+        KvsppLineCodec.encode(outBuffer, pending.command, pending.key, pending.value);
+        pending.sentAt = System.currentTimeMillis();
+        inFlight.add(pending);
+    }
+
+    private void flush() throws IOException {
+        outBuffer.flip();
+        while (outBuffer.hasRemaining()) {
+            if (channel.write(outBuffer) == 0) {
+                break;
+            }
+        }
+        boolean pendingWrite = outBuffer.hasRemaining();
+        outBuffer.compact();
+        key.interestOps(pendingWrite ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    void onWritable() throws IOException {
+        flush();
+        if (!submitted.isEmpty()) {
+            drain();
+        }
+    }
+
+    void onReadable() throws IOException {
+        int read = channel.read(inBuffer);
+        if (read == -1) {
+            throw new IOException("Backend closed the connection");
+        }
+        inBuffer.flip();
+        while (inBuffer.hasRemaining()) {
+            int start = inBuffer.position();
+            int limit = inBuffer.limit();
+            int newline = -1;
+            for (int i = start; i < limit; i++) {
+                if (inBuffer.get(i) == '\n') {
+                    newline = i;
+                    break;
+                }
+            }
+            int count = (newline == -1 ? limit : newline) - start;
+            if (lineLength + count > lineBuffer.length) {
+                lineBuffer = Arrays.copyOf(lineBuffer, Math.max(lineBuffer.length * 2, lineLength + count));
+            }
+            inBuffer.get(lineBuffer, lineLength, count);
+            lineLength += count;
+            if (newline == -1) {
+                break;
+            }
+            inBuffer.get();
+            int length = lineLength;
+            lineLength = 0;
+            onLine(KvsppLineCodec.decode(lineBuffer, 0, length));
+        }
+        inBuffer.clear();
+    }
+
+    private void onLine(String line) throws IOException {
+        PendingCommand pending = inFlight.poll();
+        if (pending == null) {
+            throw new IOException("Unexpected reply from backend: " + line);
+        }
+        if (pending != awaitingSelect) {
+            pending.future.complete(line);
+            return;
+        }
+        awaitingSelect = null;
+        boolean selected = !line.startsWith("ERROR");
+        if (selected) {
+            selectedStore = pending.storeToken;
+        }
+        if (pending.blocked == null) {
+            pending.future.complete(line);
+        } else if (selected) {
+            write(pending.blocked);
+        } else {
+            pending.blocked.future.completeExceptionally(new IOException("Failed to select store: " + line));
+        }
+        drain();
+    }
+
+    void onTick(long now) {
+        PendingCommand oldest = inFlight.peek();
+        if (oldest != null && now - oldest.sentAt > readTimeoutMs) {
+            fail(new IOException("Timed out waiting for backend reply"));
+        }
+    }
+
+    // Callers waiting on the connection get the cause, not a generic "closed"
+    void fail(IOException cause) {
+        if (!closed) {
+            logger.warn("Pipelined backend connection failed: " + cause.getMessage());
+        }
+        close(cause);
+    }
+
+    private void failPending(IOException cause) {
+        PendingCommand pending;
+        while ((pending = inFlight.poll()) != null) {
+            pending.future.completeExceptionally(cause);
+            if (pending.blocked != null) {
+                pending.blocked.future.completeExceptionally(cause);
+            }
+        }
+        while ((pending = submitted.poll()) != null) {
+            submittedCount.decrementAndGet();
+            pending.future.completeExceptionally(cause);
+        }
+    }
+
+    @Override
+    public void close() {
+        close(new IOException("Backend connection is closed"));
+    }
+
+    private void close(IOException cause) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try { channel.close(); } catch (Exception ignored) {}
+        failPending(cause);
+    }
+
+    public static String await(CompletableFuture<String> future, long timeoutMs) throws IOException {
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out waiting for backend reply", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for backend reply", e);
+        }
+    }
+
+    private static final class PendingCommand {
+        final String storeToken;
+        final String command;
+        final String key;
+        final String value;
+        final boolean explicitSelect;
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        PendingCommand blocked;
+        long sentAt;
+
+        PendingCommand(String storeToken, String command, String key, String value, boolean explicitSelect) {
+            this.storeToken = storeToken;
+            this.command = command;
+            this.key = key;
+            this.value = value;
+            this.explicitSelect = explicitSelect;
+        }
+    }
+}
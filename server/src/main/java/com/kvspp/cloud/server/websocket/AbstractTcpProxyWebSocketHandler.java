@@ -1,27 +1,266 @@
 package com.kvspp.cloud.server.websocket;
 
+import com.kvspp.cloud.server.service.KvsppCommandMetrics;
+import com.kvspp.cloud.server.service.KvsppValueCache;
+import com.kvspp.cloud.server.service.KvsppWriteBehindBuffer;
+import com.kvspp.cloud.server.service.RequestRateLimiter;
+import com.kvspp.cloud.server.service.SlowRequestRecorder;
 import com.kvspp.cloud.server.service.TcpProxyService;
 import com.kvspp.cloud.server.service.TcpProxyService.TcpSession;
+import com.kvspp.cloud.server.tcp.KvsppLineCodec;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class AbstractTcpProxyWebSocketHandler extends TextWebSocketHandler {
+    private static final Logger logger = LoggerFactory.getLogger(AbstractTcpProxyWebSocketHandler.class);
+    private static final String FORBIDDEN_REPLY = "ERROR SELECT command forbidden";
+    private static final String MULTI_LINE_REPLY = "ERROR Command must be a single line";
+
+    private enum ReplyFormat { COMMAND, BATCH, BINARY }
+
     @Autowired
     protected TcpProxyService tcpProxyService;
+    @Autowired
+    protected KvsppValueCache valueCache;
+    @Autowired
+    protected KvsppWriteBehindBuffer writeBehindBuffer;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private ObservationRegistry observationRegistry;
+    @Autowired
+    protected RequestRateLimiter rateLimiter;
     protected final ObjectMapper objectMapper = new ObjectMapper();
     protected final ConcurrentHashMap<String, TcpSession> sessionMap = new ConcurrentHashMap<>();
+    // Thread-safe, bounded views of the client sessions that replies are sent through
+    protected final ConcurrentHashMap<String, ProxyOutboundSession> outboundMap = new ConcurrentHashMap<>();
+    // Last reply delivered per session; replies answered locally must still go out in command order
+    protected final ConcurrentHashMap<String, CompletableFuture<Void>> replyTails = new ConcurrentHashMap<>();
+    // Commands awaiting delivery of their reply, per session
+    protected final ConcurrentHashMap<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+    // Sessions counted against maxSessions()
+    private final Set<String> admitted = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger admittedCount = new AtomicInteger();
+
+    @Value("${kvspp.proxy.send-time-limit-ms:10000}")
+    private int sendTimeLimitMs;
+
+    @Value("${kvspp.proxy.send-buffer-size-limit:524288}")
+    private int sendBufferSizeLimit;
+
+    @Value("${kvspp.proxy.max-in-flight:1000}")
+    private int maxInFlight;
+
+    // What happens once a client's buffered replies pass send-buffer-size-limit: disconnect, drop or pause
+    @Value("${kvspp.proxy.overflow-policy:disconnect}")
+    private String overflowPolicy;
+
+    @Value("${kvspp.proxy.binary-frames:true}")
+    private boolean binaryFrames;
+
+    // Largest text or binary message a client may send, e.g. a batch
+    @Value("${kvspp.proxy.max-message-bytes:65536}")
+    private int maxMessageBytes;
+
+    @Value("${kvspp.proxy.idle-timeout-ms:300000}")
+    private long idleTimeoutMs;
+
+    @Value("${kvspp.proxy.sweep-interval-ms:1000}")
+    private long sweepIntervalMs;
+
+    private ProxyOutboundSession.OverflowPolicy policy;
+    private Counter overflows;
+    private Counter reaped;
+    // Replies are written to clients here rather than on backend event loop threads, so a client
+    // that reads slowly never holds up other sessions' backend traffic
+    private final ExecutorService deliveryExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private ScheduledExecutorService sweeper;
 
     protected abstract String resolveStoreToken(WebSocketSession session);
 
+    // Most sessions this handler keeps open at once, 0 for no limit
+    protected int maxSessions() {
+        return 0;
+    }
+
+    // Demo sessions are kept off the shared backend connections of private stores
+    protected boolean isDemo() {
+        return false;
+    }
+
+    // Lets handshakes be refused before the upgrade; afterConnectionEstablished enforces the limit exactly
+    public boolean isFull() {
+        int max = maxSessions();
+        return max > 0 && admittedCount.get() >= max;
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        policy = ProxyOutboundSession.OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase(Locale.ROOT));
+        String handler = getClass().getSimpleName();
+        Gauge.builder("kvspp.proxy.sessions", sessionMap, ConcurrentHashMap::size)
+                .description("WebSocket proxy sessions with an open backend connection")
+                .tag("handler", handler)
+                .register(meterRegistry);
+        Gauge.builder("kvspp.proxy.outbound.buffered", this, AbstractTcpProxyWebSocketHandler::bufferedBytes)
+                .description("Bytes of replies waiting to be written to WebSocket clients")
+                .baseUnit("bytes")
+                .tag("handler", handler)
+                .register(meterRegistry);
+        Gauge.builder("kvspp.proxy.outbound.max-buffered", this, AbstractTcpProxyWebSocketHandler::maxBufferedBytes)
+                .description("Largest per-session backlog of unwritten replies")
+                .baseUnit("bytes")
+                .tag("handler", handler)
+                .register(meterRegistry);
+        Gauge.builder("kvspp.proxy.outbound.paused", this, AbstractTcpProxyWebSocketHandler::pausedSessions)
+                .description("Sessions whose commands are not read until their replies drain")
+                .tag("handler", handler)
+                .register(meterRegistry);
+        overflows = Counter.builder("kvspp.proxy.outbound.overflows")
+                .description("Sessions disconnected, replies dropped or sessions paused because a client read too slowly")
+                .tag("handler", handler)
+                .tag("policy", policy.name().toLowerCase(Locale.ROOT))
+                .register(meterRegistry);
+        reaped = Counter.builder("kvspp.proxy.sessions.reaped")
+                .description("Idle proxy sessions closed by the sweeper")
+                .tag("handler", handler)
+                .register(meterRegistry);
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "kvspp-proxy-sweeper-" + handler);
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMs, sweepIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+        deliveryExecutor.shutdown();
+    }
+
+    private double bufferedBytes() {
+        long total = 0;
+        for (ProxyOutboundSession outbound : outboundMap.values()) {
+            total += outbound.getBufferSize();
+        }
+        return total;
+    }
+
+    private double maxBufferedBytes() {
+        int max = 0;
+        for (ProxyOutboundSession outbound : outboundMap.values()) {
+            max = Math.max(max, outbound.getBufferSize());
+        }
+        return max;
+    }
+
+    private double pausedSessions() {
+        int paused = 0;
+        for (ProxyOutboundSession outbound : outboundMap.values()) {
+            if (outbound.isPaused()) {
+                paused++;
+            }
+        }
+        return paused;
+    }
+
+    // Resumes paused sessions whose last write drained the buffer without another reply coming
+    // after it, closes sessions that are idle, stuck on one write for longer than the send time
+    // limit or left without a backend session, and drops the backend side of sessions closed without afterConnectionClosed running
+    private void sweep() {
+        long now = System.nanoTime();
+        long idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+        for (Map.Entry<String, ProxyOutboundSession> entry : outboundMap.entrySet()) {
+            ProxyOutboundSession outbound = entry.getValue();
+            TcpSession tcpSession = sessionMap.get(entry.getKey());
+            try {
+                if (!outbound.isOpen()) {
+                    release(entry.getKey());
+                } else if (tcpSession != null && !tcpSession.isOpen()) {
+                    // The backend connection failed, or the store moved to another backend
+                    if (outbound.startClosing()) {
+                        closeAsync(outbound, CloseStatus.SERVICE_RESTARTED.withReason("Backend session closed"));
+                    }
+                } else if (outbound.getTimeSinceSendStarted() > sendTimeLimitMs) {
+                    // The decorator only checks this when another reply is sent
+                    if (outbound.startClosing()) {
+                        overflows.increment();
+                        closeAsync(outbound, CloseStatus.SESSION_NOT_RELIABLE);
+                    }
+                } else if (idleTimeoutMs > 0 && outbound.isIdle(now, idleTimeoutNanos)) {
+                    if (outbound.startClosing()) {
+                        reaped.increment();
+                        logger.debug("Closing idle WebSocket proxy session " + entry.getKey());
+                        closeAsync(outbound, CloseStatus.GOING_AWAY.withReason("Idle timeout"));
+                    }
+                } else if (outbound.isPaused()) {
+                    outbound.updatePause();
+                }
+            } catch (Exception e) {
+                logger.debug("Sweep of WebSocket session " + entry.getKey() + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // Closing writes a close frame, which can block behind a write to a slow client
+    private void closeAsync(WebSocketSession session, CloseStatus status) {
+        deliveryExecutor.execute(() -> {
+            try {
+                session.close(status);
+            } catch (Exception e) {
+                logger.debug("Could not close WebSocket session " + session.getId() + ": " + e.getMessage());
+            }
+        });
+    }
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        if (!admit(session.getId())) {
+            rateLimiter.recordRejected("sessions", RequestRateLimiter.WEBSOCKET);
+            session.close(CloseStatus.SERVICE_OVERLOAD.withReason("Too many sessions"));
+            return;
+        }
+        session.setTextMessageSizeLimit(maxMessageBytes);
+        session.setBinaryMessageSizeLimit(maxMessageBytes);
+        outboundMap.put(session.getId(),
+                new ProxyOutboundSession(session, sendTimeLimitMs, sendBufferSizeLimit, policy, overflows));
         String storeToken = resolveStoreToken(session);
         if (storeToken == null) {
             sendJsonError(session, "Missing storeToken");
@@ -30,12 +269,12 @@ public abstract class AbstractTcpProxyWebSocketHandler extends TextWebSocketHand
         }
 
         try {
-            TcpSession tcpSession = tcpProxyService.openSession(storeToken);
+            TcpSession tcpSession = tcpProxyService.openSession(storeToken, isDemo());
             sessionMap.put(session.getId(), tcpSession);
             ObjectNode response = objectMapper.createObjectNode();
             response.put("type", "select_response");
             response.put("payload", tcpSession.getSelectResponse());
-            session.sendMessage(new TextMessage(response.toString()));
+            outbound(session).sendMessage(new TextMessage(response.toString()));
         } catch (IOException e) {
             sendJsonError(session, "TCP backend error");
             session.close();
@@ -56,55 +295,316 @@ public abstract class AbstractTcpProxyWebSocketHandler extends TextWebSocketHand
         return command;
     }
 
+    // Commands may carry an "id", which is echoed on the reply (and on errors about that command).
+    // Tagged replies go out as soon as they arrive, so a client can keep many commands in flight
+    // and match replies by ID; untagged replies are delivered in command order. A "batch" message
+    // carries a list of commands and is answered by one batch_response with the replies in order.
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
-        TcpSession tcpSession = sessionMap.get(session.getId());
+        TcpSession tcpSession = tcpSessionFor(session);
         if (tcpSession == null) {
-            sendJsonError(session, "TCP session not found");
-            session.close();
             return;
         }
         ObjectNode request;
         try {
             request = (ObjectNode) objectMapper.readTree(message.getPayload());
         } catch (Exception e) {
-            sendJsonError(session, "Invalid JSON");
+            rejectMessage(session, null, "Invalid JSON");
             return;
         }
+        JsonNode id = request.hasNonNull("id") ? request.get("id") : null;
         String type = request.has("type") ? request.get("type").asText() : null;
         ObjectNode payload = request.has("payload") && request.get("payload").isObject()
                 ? (ObjectNode) request.get("payload")
                 : null;
+        String storeToken = resolveStoreToken(session);
+        if ("batch".equals(type) && payload != null && payload.path("commands").isArray()) {
+            List<String> commands = new ArrayList<>(payload.get("commands").size());
+            for (JsonNode command : payload.get("commands")) {
+                // Multi-line commands are left as sent for send() to reject, the rewrite would join their lines
+                String text = command.asText();
+                commands.add(KvsppLineCodec.isSingleLine(text) ? enforceStoreTokenOnSaveCommand(text, storeToken) : text);
+            }
+            if (commands.isEmpty()) {
+                rejectMessage(session, id, "Empty batch");
+                return;
+            }
+            submit(session, tcpSession, storeToken, commands, id, ReplyFormat.BATCH);
+            return;
+        }
         if (!"command".equals(type) || payload == null || !payload.has("command")) {
-            sendJsonError(session, "Invalid command format");
+            rejectMessage(session, id, "Invalid command format");
             return;
         }
         String command = payload.get("command").asText();
-        String storeToken = resolveStoreToken(session);
+        if (!KvsppLineCodec.isSingleLine(command)) {
+            rejectMessage(session, id, "Command must be a single line");
+            return;
+        }
         command = enforceStoreTokenOnSaveCommand(command, storeToken);
         if (tcpProxyService.isForbiddenCommand(command, null)) {
-            sendJsonError(session, "SELECT command forbidden");
+            rejectMessage(session, id, "SELECT command forbidden");
             return;
         }
-        tcpSession.getOut().write(command + "\r\n");
-        tcpSession.getOut().flush();
-        String response = tcpSession.getIn().readLine();
+        submit(session, tcpSession, storeToken, List.of(command), id, ReplyFormat.COMMAND);
+    }
+
+    // Compact format without JSON: a binary frame holds UTF-8 command lines separated by '\n' and is
+    // answered by one binary frame with a '\n'-terminated reply line per command, in order. Binary
+    // replies are ordered together with untagged JSON replies.
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+        try {
+            if (!binaryFrames) {
+                session.close(CloseStatus.NOT_ACCEPTABLE.withReason("Binary messages not supported"));
+                return;
+            }
+            TcpSession tcpSession = tcpSessionFor(session);
+            if (tcpSession == null) {
+                return;
+            }
+            String storeToken = resolveStoreToken(session);
+            List<String> commands = new ArrayList<>();
+            for (String line : StandardCharsets.UTF_8.decode(message.getPayload()).toString().split("\r?\n")) {
+                if (!line.isBlank()) {
+                    commands.add(KvsppLineCodec.isSingleLine(line) ? enforceStoreTokenOnSaveCommand(line, storeToken) : line);
+                }
+            }
+            if (!commands.isEmpty()) {
+                submit(session, tcpSession, storeToken, commands, null, ReplyFormat.BINARY);
+            }
+        } catch (IOException e) {
+            logger.debug("Could not handle binary message on WebSocket session " + session.getId() + ": " + e.getMessage());
+        }
+    }
+
+    // Marks the session as active and returns its backend session, or closes it if there is none
+    private TcpSession tcpSessionFor(WebSocketSession session) throws IOException {
+        ProxyOutboundSession outbound = outboundMap.get(session.getId());
+        if (outbound != null) {
+            outbound.touch();
+            // Stop reading further commands now if replies are already backing up
+            outbound.updatePause();
+        }
+        TcpSession tcpSession = sessionMap.get(session.getId());
+        if (tcpSession == null) {
+            sendJsonError(session, "TCP session not found");
+            session.close();
+        }
+        return tcpSession;
+    }
+
+    private void submit(WebSocketSession session, TcpSession tcpSession, String storeToken, List<String> commands,
+                        JsonNode id, ReplyFormat format) {
+        // The dispatch thread does not wait; untagged replies are delivered after the previous one
+        CompletableFuture<Void> previous = id == null
+                ? replyTails.getOrDefault(session.getId(), CompletableFuture.completedFuture(null))
+                : CompletableFuture.completedFuture(null);
+        CompletableFuture<Void> delivered;
+        AtomicInteger pending = inFlight.computeIfAbsent(session.getId(), k -> new AtomicInteger());
+        if (rateLimiter.acquire(clientAddress(session), storeToken, commands.size(), RequestRateLimiter.WEBSOCKET) > 0) {
+            delivered = previous.thenRun(() -> reject(session, commands.size(), id, format, "Rate limit exceeded"));
+        } else if (pending.addAndGet(commands.size()) > maxInFlight) {
+            pending.addAndGet(-commands.size());
+            // Untagged replies are matched by position, so the rejection waits its turn as well
+            delivered = previous.thenRun(() -> reject(session, commands.size(), id, format, "Too many commands in flight"));
+        } else {
+            delivered = dispatch(tcpSession, storeToken, commands, session, id, format, previous);
+            delivered.whenComplete((ignored, error) -> pending.addAndGet(-commands.size()));
+        }
+        if (id == null) {
+            replyTails.put(session.getId(), delivered);
+        }
+    }
+
+    // Sends the commands and, once both their replies and the given earlier delivery are done,
+    // hands the replies to the client, or closes the session if the backend failed. The returned
+    // future completes after delivery.
+    private CompletableFuture<Void> dispatch(TcpSession tcpSession, String storeToken, List<String> commands,
+                                             WebSocketSession session, JsonNode id, ReplyFormat format,
+                                             CompletableFuture<Void> after) {
+        // Writes made through the proxy must not leave stale values in the REST read cache
+        commands.forEach(command -> valueCache.invalidateForCommand(storeToken, command));
+        // Traced from dispatch until the reply is handed to the client session
+        Observation observation = Observation.createNotStarted(SlowRequestRecorder.PROXY_COMMAND, observationRegistry)
+                .lowCardinalityKeyValue("command", format == ReplyFormat.COMMAND
+                        ? KvsppCommandMetrics.commandType(commands.get(0))
+                        : "BATCH")
+                .highCardinalityKeyValue("store", storeToken)
+                .start();
+        CompletableFuture<List<String>> replies;
+        try (Observation.Scope scope = observation.openScope()) {
+            replies = send(tcpSession, storeToken, commands);
+        } catch (RuntimeException e) {
+            observation.error(e);
+            observation.stop();
+            throw e;
+        }
+        return after.thenCompose(ignored -> replies).handleAsync((responses, error) -> {
+            commands.forEach(command -> valueCache.invalidateForCommand(storeToken, command));
+            try {
+                if (error != null) {
+                    observation.error(error);
+                    sendJsonError(session, "TCP backend error", id);
+                    session.close(CloseStatus.SERVER_ERROR);
+                    return null;
+                }
+                outbound(session).sendMessage(replyMessage(responses, id, format));
+            } catch (Exception e) {
+                logger.debug("Could not deliver reply to WebSocket session " + session.getId() + ": " + e.getMessage());
+            } finally {
+                observation.stop();
+            }
+            return null;
+        }, deliveryExecutor);
+    }
+
+    // Commands of a batch go to the backend back to back; SELECT and commands spanning several
+    // lines are answered locally with an error
+    private CompletableFuture<List<String>> send(TcpSession tcpSession, String storeToken, List<String> commands) {
+        boolean writeBehind = writeBehindBuffer.isEnabled(storeToken);
+        if (commands.size() == 1) {
+            String command = commands.get(0);
+            String rejected = localReply(command);
+            CompletableFuture<String> reply = rejected != null
+                    ? CompletableFuture.completedFuture(rejected)
+                    : writeBehind
+                    ? writeBehindBuffer.proxy(storeToken, command, tcpSession::send)
+                    : tcpSession.send(command);
+            return reply.thenApply(List::of);
+        }
+        List<CompletableFuture<String>> replies = new ArrayList<>(commands.size());
+        List<String> batch = new ArrayList<>(commands.size());
+        List<Integer> batchSlots = new ArrayList<>(commands.size());
+        for (String command : commands) {
+            String rejected = localReply(command);
+            if (rejected != null) {
+                replies.add(CompletableFuture.completedFuture(rejected));
+            } else if (writeBehind) {
+                replies.add(writeBehindBuffer.proxy(storeToken, command, tcpSession::send));
+            } else {
+                batchSlots.add(replies.size());
+                replies.add(null);
+                batch.add(command);
+            }
+        }
+        if (!batch.isEmpty()) {
+            List<CompletableFuture<String>> sent = tcpSession.sendAll(batch);
+            for (int i = 0; i < sent.size(); i++) {
+                replies.set(batchSlots.get(i), sent.get(i));
+            }
+        }
+        return CompletableFuture.allOf(replies.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            List<String> responses = new ArrayList<>(replies.size());
+            for (CompletableFuture<String> reply : replies) {
+                responses.add(reply.join());
+            }
+            return responses;
+        });
+    }
+
+    private String localReply(String command) {
+        if (!KvsppLineCodec.isSingleLine(command)) {
+            return MULTI_LINE_REPLY;
+        }
+        return tcpProxyService.isForbiddenCommand(command, null) ? FORBIDDEN_REPLY : null;
+    }
+
+    private WebSocketMessage<?> replyMessage(List<String> responses, JsonNode id, ReplyFormat format) {
+        if (format == ReplyFormat.BINARY) {
+            StringBuilder lines = new StringBuilder();
+            for (String response : responses) {
+                lines.append(response).append('\n');
+            }
+            return new BinaryMessage(lines.toString().getBytes(StandardCharsets.UTF_8));
+        }
         ObjectNode jsonResponse = objectMapper.createObjectNode();
-        jsonResponse.put("type", "command_response");
-        jsonResponse.put("payload", response);
-        session.sendMessage(new TextMessage(jsonResponse.toString()));
+        jsonResponse.put("type", format == ReplyFormat.BATCH ? "batch_response" : "command_response");
+        if (id != null) {
+            jsonResponse.set("id", id);
+        }
+        if (format == ReplyFormat.BATCH) {
+            ArrayNode payload = jsonResponse.putArray("payload");
+            responses.forEach(payload::add);
+        } else {
+            jsonResponse.put("payload", responses.get(0));
+        }
+        return new TextMessage(jsonResponse.toString());
+    }
+
+    // Errors about a message are replies too; untagged ones wait for the replies to earlier commands
+    private void rejectMessage(WebSocketSession session, JsonNode id, String message) {
+        if (id != null) {
+            reject(session, 1, id, ReplyFormat.COMMAND, message);
+            return;
+        }
+        CompletableFuture<Void> previous = replyTails.getOrDefault(session.getId(), CompletableFuture.completedFuture(null));
+        replyTails.put(session.getId(), previous.thenRun(() -> reject(session, 1, null, ReplyFormat.COMMAND, message)));
+    }
+
+    // Binary clients get an ERROR line per command so replies still line up with their commands
+    private void reject(WebSocketSession session, int commandCount, JsonNode id, ReplyFormat format, String message) {
+        try {
+            if (format == ReplyFormat.BINARY) {
+                outbound(session).sendMessage(replyMessage(Collections.nCopies(commandCount, "ERROR " + message), null, format));
+            } else {
+                sendJsonError(session, message, id);
+            }
+        } catch (IOException e) {
+            logger.debug("Could not deliver reply to WebSocket session " + session.getId() + ": " + e.getMessage());
+        }
+    }
+
+    private boolean admit(String sessionId) {
+        int max = maxSessions();
+        if (max <= 0) {
+            return true;
+        }
+        if (admittedCount.incrementAndGet() > max) {
+            admittedCount.decrementAndGet();
+            return false;
+        }
+        admitted.add(sessionId);
+        return true;
+    }
+
+    private static String clientAddress(WebSocketSession session) {
+        InetSocketAddress address = session.getRemoteAddress();
+        return address != null && address.getAddress() != null ? address.getAddress().getHostAddress() : null;
+    }
+
+    protected WebSocketSession outbound(WebSocketSession session) {
+        WebSocketSession outbound = outboundMap.get(session.getId());
+        return outbound != null ? outbound : session;
     }
 
     protected void sendJsonError(WebSocketSession session, String message) throws IOException {
+        sendJsonError(session, message, null);
+    }
+
+    protected void sendJsonError(WebSocketSession session, String message, JsonNode id) throws IOException {
         ObjectNode error = objectMapper.createObjectNode();
         error.put("type", "error");
+        if (id != null) {
+            error.set("id", id);
+        }
         error.put("message", message);
-        session.sendMessage(new TextMessage(error.toString()));
+        outbound(session).sendMessage(new TextMessage(error.toString()));
     }
 
     @Override
-    public void afterConnectionClosed(WebSocketSession session, org.springframework.web.socket.CloseStatus status) throws Exception {
-        TcpSession tcpSession = sessionMap.remove(session.getId());
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
+        release(session.getId());
+    }
+
+    private void release(String sessionId) throws IOException {
+        outboundMap.remove(sessionId);
+        replyTails.remove(sessionId);
+        inFlight.remove(sessionId);
+        if (admitted.remove(sessionId)) {
+            admittedCount.decrementAndGet();
+        }
+        TcpSession tcpSession = sessionMap.remove(sessionId);
         if (tcpSession != null) {
             tcpSession.close();
         }
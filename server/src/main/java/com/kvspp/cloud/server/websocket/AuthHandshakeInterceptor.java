@@ -1,8 +1,8 @@
 package com.kvspp.cloud.server.websocket;
 
 import com.kvspp.cloud.server.model.User;
-import com.kvspp.cloud.server.repository.UserRepository;
 import com.kvspp.cloud.server.security.JwtUtil;
+import com.kvspp.cloud.server.service.UserPrincipalCache;
 import org.springframework.http.server.ServerHttpRequest;
 import org.springframework.http.server.ServerHttpResponse;
 import org.springframework.http.HttpStatus;
@@ -28,18 +28,18 @@ public class AuthHandshakeInterceptor implements HandshakeInterceptor {
     private static final Logger logger = LoggerFactory.getLogger(AuthHandshakeInterceptor.class);
 
     private final JwtUtil jwtUtil;
-    private final UserRepository userRepository;
+    private final UserPrincipalCache principalCache;
 
-    public AuthHandshakeInterceptor(JwtUtil jwtUtil, UserRepository userRepository) {
+    public AuthHandshakeInterceptor(JwtUtil jwtUtil, UserPrincipalCache principalCache) {
         this.jwtUtil = jwtUtil;
-        this.userRepository = userRepository;
+        this.principalCache = principalCache;
     }
 
     @Override
     public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
                                    WebSocketHandler wsHandler, Map<String, Object> attributes) throws Exception {
         URI uri = request.getURI();
-        logger.info("WebSocket handshake request to: " + uri.getPath());
+        logger.debug("WebSocket handshake request to: " + uri.getPath());
 
         // Extract token from query parameter
         Map<String, String> queryParams = UriComponentsBuilder.fromUri(uri).build().getQueryParams().toSingleValueMap();
@@ -51,22 +51,20 @@ public class AuthHandshakeInterceptor implements HandshakeInterceptor {
             return false;
         }
 
-        logger.info("Token received (first 20 chars): " + (token.length() > 20 ? token.substring(0, 20) + "..." : token));
+        logger.debug("Token received (first 20 chars): " + (token.length() > 20 ? token.substring(0, 20) + "..." : token));
 
         try {
-            // Validate the JWT token
-            if (!jwtUtil.validateToken(token)) {
+            // Validate the JWT token and extract the user ID in one pass
+            String userId = jwtUtil.validateAndExtractUserId(token);
+            if (userId == null) {
                 logger.warn("✗ WebSocket handshake rejected: Invalid token");
                 response.setStatusCode(HttpStatus.UNAUTHORIZED);
                 return false;
             }
+            logger.debug("Token validated, userId: " + userId);
 
-            // Extract user ID from token
-            String userId = jwtUtil.extractUserId(token);
-            logger.info("Token validated, userId: " + userId);
-
-            // Load user from database with stores
-            Optional<User> userOptional = userRepository.findByIdWithStores(UUID.fromString(userId));
+            // Load user with stores, from the principal cache when possible
+            Optional<User> userOptional = principalCache.find(UUID.fromString(userId));
 
             if (userOptional.isEmpty()) {
                 logger.warn("✗ WebSocket handshake rejected: User not found");
@@ -75,7 +73,7 @@ public class AuthHandshakeInterceptor implements HandshakeInterceptor {
             }
 
             User user = userOptional.get();
-            logger.info("✓ User authenticated for WebSocket: " + user.getEmail());
+            logger.debug("✓ User authenticated for WebSocket: " + user.getEmail());
 
             // Create authentication and add to attributes for the WebSocket session
             Authentication authentication = new UsernamePasswordAuthenticationToken(
@@ -1,5 +1,7 @@
 package com.kvspp.cloud.server.websocket;
 
+import com.kvspp.cloud.server.service.RequestRateLimiter;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.server.ServerHttpRequest;
 import org.springframework.http.server.ServerHttpResponse;
 import org.springframework.web.socket.WebSocketHandler;
@@ -14,11 +16,25 @@ public class DemoHandshakeInterceptor implements HandshakeInterceptor {
 
     private static final Logger logger = LoggerFactory.getLogger(DemoHandshakeInterceptor.class);
 
+    private final DemoTcpProxyWebSocketHandler handler;
+    private final RequestRateLimiter rateLimiter;
+
+    public DemoHandshakeInterceptor(DemoTcpProxyWebSocketHandler handler, RequestRateLimiter rateLimiter) {
+        this.handler = handler;
+        this.rateLimiter = rateLimiter;
+    }
+
     @Override
     public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
                                    WebSocketHandler wsHandler, Map<String, Object> attributes) throws Exception {
         URI uri = request.getURI();
         logger.info("Demo WebSocket handshake request to: " + uri.getPath());
+        if (handler.isFull()) {
+            rateLimiter.recordRejected("sessions", RequestRateLimiter.WEBSOCKET);
+            response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+            logger.info("✗ Demo WebSocket handshake refused: session limit reached");
+            return false;
+        }
         logger.info("✓ Demo WebSocket handshake allowed (no authentication required)");
         return true;
     }
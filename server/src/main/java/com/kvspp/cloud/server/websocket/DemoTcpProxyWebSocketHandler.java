@@ -1,12 +1,27 @@
 package com.kvspp.cloud.server.websocket;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.WebSocketSession;
 
 @Component
 public class DemoTcpProxyWebSocketHandler extends AbstractTcpProxyWebSocketHandler {
+    // Anyone can open a demo session, so their number is capped to protect the shared backend
+    @Value("${kvspp.demo.max-sessions:200}")
+    private int maxSessions;
+
     @Override
     protected String resolveStoreToken(WebSocketSession session) {
         return "public";
     }
+
+    @Override
+    protected boolean isDemo() {
+        return true;
+    }
+
+    @Override
+    protected int maxSessions() {
+        return maxSessions;
+    }
 }
@@ -0,0 +1,109 @@
+package com.kvspp.cloud.server.websocket;
+
+import io.micrometer.core.instrument.Counter;
+import org.apache.tomcat.websocket.WsSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Outbound side of a proxy session. Spring's decorator lets one thread write at a time and
+// buffers replies while the client reads slowly; this keeps that buffer under bufferSizeLimit
+// with the configured overflow policy and records activity for idle reaping.
+class ProxyOutboundSession extends ConcurrentWebSocketSessionDecorator {
+    private static final Logger logger = LoggerFactory.getLogger(ProxyOutboundSession.class);
+
+    enum OverflowPolicy {
+        // Close the session with SESSION_NOT_RELIABLE
+        DISCONNECT,
+        // Discard replies that do not fit
+        DROP,
+        // Stop reading commands from the client until the buffer has drained to half the limit
+        PAUSE
+    }
+
+    private final OverflowPolicy policy;
+    private final int bufferSizeLimit;
+    private final Counter overflows;
+    // Null when not running on Tomcat; PAUSE then never pauses
+    private final WsSession tomcatSession;
+    private final AtomicBoolean paused = new AtomicBoolean();
+    private final AtomicBoolean closing = new AtomicBoolean();
+    private volatile long lastActivity = System.nanoTime();
+
+    ProxyOutboundSession(WebSocketSession session, int sendTimeLimitMs, int bufferSizeLimit,
+                         OverflowPolicy policy, Counter overflows) {
+        // DROP keeps the buffer at the limit itself; concurrent senders can overshoot it slightly, so
+        // the decorator only disconnects at twice the limit. Under PAUSE, replies to commands read
+        // before the pause still arrive, bounded by max-in-flight, and a client that stops reading
+        // altogether is disconnected by the send time limit.
+        super(session, sendTimeLimitMs, switch (policy) {
+            case DISCONNECT -> bufferSizeLimit;
+            case DROP -> bufferSizeLimit * 2;
+            case PAUSE -> Integer.MAX_VALUE;
+        });
+        this.policy = policy;
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.overflows = overflows;
+        this.tomcatSession = session instanceof NativeWebSocketSession nativeSession
+                ? nativeSession.getNativeSession(WsSession.class)
+                : null;
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+        touch();
+        int buffered = getBufferSize();
+        if (policy == OverflowPolicy.DROP && buffered > 0 && buffered + message.getPayloadLength() > bufferSizeLimit) {
+            overflows.increment();
+            return;
+        }
+        try {
+            super.sendMessage(message);
+        } catch (SessionLimitExceededException e) {
+            overflows.increment();
+            logger.debug("WebSocket session " + getId() + " closed: " + e.getMessage());
+            close(e.getStatus());
+            throw e;
+        }
+        updatePause();
+    }
+
+    // Pauses or resumes reading from the client depending on how much is still buffered
+    void updatePause() {
+        if (policy != OverflowPolicy.PAUSE || tomcatSession == null) {
+            return;
+        }
+        int buffered = getBufferSize();
+        if (buffered > bufferSizeLimit && paused.compareAndSet(false, true)) {
+            overflows.increment();
+            tomcatSession.suspend();
+        } else if (buffered <= bufferSizeLimit / 2 && paused.compareAndSet(true, false)) {
+            tomcatSession.resume();
+        }
+    }
+
+    boolean isPaused() {
+        return paused.get();
+    }
+
+    // True for the first caller only, so a session is closed and counted once
+    boolean startClosing() {
+        return closing.compareAndSet(false, true);
+    }
+
+    void touch() {
+        lastActivity = System.nanoTime();
+    }
+
+    boolean isIdle(long now, long idleTimeoutNanos) {
+        return getBufferSize() == 0 && now - lastActivity > idleTimeoutNanos;
+    }
+}
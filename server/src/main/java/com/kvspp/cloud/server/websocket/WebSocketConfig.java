@@ -1,18 +1,35 @@
 package com.kvspp.cloud.server.websocket;
 
-import com.kvspp.cloud.server.repository.UserRepository;
 import com.kvspp.cloud.server.security.JwtUtil;
+import com.kvspp.cloud.server.service.RequestRateLimiter;
+import com.kvspp.cloud.server.service.UserPrincipalCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.HandshakeFailureException;
+import org.springframework.web.socket.server.HandshakeHandler;
+import org.springframework.web.socket.server.RequestUpgradeStrategy;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
 import org.springframework.web.socket.server.support.HttpSessionHandshakeInterceptor;
 
+import jakarta.servlet.http.HttpServletRequestWrapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.security.Principal;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+
 @Configuration
 @EnableWebSocket
 public class WebSocketConfig implements WebSocketConfigurer {
@@ -26,23 +43,76 @@ public class WebSocketConfig implements WebSocketConfigurer {
     private JwtUtil jwtUtil;
 
     @Autowired
-    private UserRepository userRepository;
+    private UserPrincipalCache principalCache;
+
+    @Autowired
+    private RequestRateLimiter rateLimiter;
 
     @Value("${client.url}")
     private String clientUrl;
 
+    // permessage-deflate, negotiated by Tomcat when the client offers it
+    @Value("${kvspp.proxy.compression:true}")
+    private boolean compression;
+
     private static final Logger logger = LoggerFactory.getLogger(WebSocketConfig.class);
 
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         logger.info("Registering WebSocket handler at /ws/tcp-proxy");
+        HandshakeHandler handshakeHandler = compression ? new DefaultHandshakeHandler() : new UncompressedHandshakeHandler();
         registry.addHandler(tcpProxyWebSocketHandler, "/ws/tcp-proxy")
-            .addInterceptors(new HttpSessionHandshakeInterceptor(), new AuthHandshakeInterceptor(jwtUtil, userRepository))
+            .setHandshakeHandler(handshakeHandler)
+            .addInterceptors(new HttpSessionHandshakeInterceptor(), new AuthHandshakeInterceptor(jwtUtil, principalCache))
             .setAllowedOrigins(clientUrl);
 
         logger.info("Registering Demo WebSocket handler at /ws/tcp-proxy-demo");
         registry.addHandler(demoTcpProxyWebSocketHandler, "/ws/tcp-proxy-demo")
-            .addInterceptors(new DemoHandshakeInterceptor())
+            .setHandshakeHandler(handshakeHandler)
+            .addInterceptors(new DemoHandshakeInterceptor(demoTcpProxyWebSocketHandler, rateLimiter))
             .setAllowedOrigins(clientUrl);
+        logger.info((compression ? "✓" : "✗") + " WebSocket permessage-deflate " + (compression ? "enabled" : "disabled"));
+    }
+
+    // Tomcat reads the extension offer straight from the servlet request, so hiding the header is
+    // the way to keep it from negotiating compression
+    private static class UncompressedHandshakeHandler extends DefaultHandshakeHandler {
+        private static final String EXTENSIONS_HEADER = "Sec-WebSocket-Extensions";
+
+        UncompressedHandshakeHandler() {
+            super(new WithoutExtensions(new DefaultHandshakeHandler().getRequestUpgradeStrategy()));
+        }
+
+        private record WithoutExtensions(RequestUpgradeStrategy delegate) implements RequestUpgradeStrategy {
+            @Override
+            public String[] getSupportedVersions() {
+                return delegate.getSupportedVersions();
+            }
+
+            @Override
+            public List<WebSocketExtension> getSupportedExtensions(ServerHttpRequest request) {
+                return List.of();
+            }
+
+            @Override
+            public void upgrade(ServerHttpRequest request, ServerHttpResponse response, String selectedProtocol,
+                                List<WebSocketExtension> selectedExtensions, Principal user,
+                                WebSocketHandler wsHandler, Map<String, Object> attributes) throws HandshakeFailureException {
+                if (request instanceof ServletServerHttpRequest servletRequest) {
+                    request = new ServletServerHttpRequest(new HttpServletRequestWrapper(servletRequest.getServletRequest()) {
+                        @Override
+                        public String getHeader(String name) {
+                            return EXTENSIONS_HEADER.equalsIgnoreCase(name) ? null : super.getHeader(name);
+                        }
+
+                        @Override
+                        public Enumeration<String> getHeaders(String name) {
+                            return EXTENSIONS_HEADER.equalsIgnoreCase(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+                        }
+                    });
+                }
+                delegate.upgrade(request, response, selectedProtocol, selectedExtensions, user, wsHandler, attributes);
+            }
+        }
     }
 }
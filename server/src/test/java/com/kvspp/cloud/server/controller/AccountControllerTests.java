@@ -0,0 +1,82 @@
+package com.kvspp.cloud.server.controller;
+
+import com.kvspp.cloud.server.model.Store;
+import com.kvspp.cloud.server.model.User;
+import com.kvspp.cloud.server.repository.StoreRepository;
+import com.kvspp.cloud.server.repository.UserRepository;
+import com.kvspp.cloud.server.security.JwtUtil;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class AccountControllerTests {
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private StoreRepository storeRepository;
+
+	@Autowired
+	private JwtUtil jwtUtil;
+
+	private User newUser(String prefix, Store store) {
+		String id = UUID.randomUUID().toString();
+		User user = new User();
+		user.setGoogleId(prefix + "-" + id);
+		user.setEmail(prefix + "-" + id + "@example.com");
+		user.setName(prefix);
+		user.getStores().add(store);
+		return userRepository.save(user);
+	}
+
+	private String bearer(User user) {
+		return "Bearer " + jwtUtil.generateToken(user.getId().toString(), user.getEmail(), user.getName());
+	}
+
+	@Test
+	void deletingAnAccountDropsItFromCoOwnersCachedStores() throws Exception {
+		Store store = new Store();
+		store.setToken(UUID.randomUUID().toString());
+		store.setName("shared");
+		store.setDescription("");
+		store = storeRepository.save(store);
+		User leaving = newUser("leaving", store);
+		User staying = newUser("staying", store);
+
+		// Both principals are cached with the store and its two owners
+		mockMvc.perform(get("/store").header("Authorization", bearer(leaving)))
+				.andExpect(status().isOk());
+		mockMvc.perform(get("/store").header("Authorization", bearer(staying)))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.data.stores[0].users.length()").value(2));
+
+		mockMvc.perform(delete("/account/delete").header("Authorization", bearer(leaving)))
+				.andExpect(status().isOk());
+
+		assertThat(userRepository.findById(leaving.getId())).isEmpty();
+		mockMvc.perform(get("/account/me").header("Authorization", bearer(leaving)))
+				.andExpect(status().isUnauthorized());
+		mockMvc.perform(get("/store").header("Authorization", bearer(staying)))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.data.stores[0].users.length()").value(1))
+				.andExpect(jsonPath("$.data.stores[0].users[0].email").value(staying.getEmail()));
+		mockMvc.perform(get("/store/" + store.getToken() + "/keys").header("Authorization", bearer(leaving)))
+				.andExpect(status().isUnauthorized());
+	}
+}
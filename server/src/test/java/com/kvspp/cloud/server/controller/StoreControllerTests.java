@@ -0,0 +1,165 @@
+package com.kvspp.cloud.server.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kvspp.cloud.server.model.Store;
+import com.kvspp.cloud.server.model.User;
+import com.kvspp.cloud.server.repository.StoreRepository;
+import com.kvspp.cloud.server.repository.UserRepository;
+import com.kvspp.cloud.server.security.JwtUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.not;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class StoreControllerTests {
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private StoreRepository storeRepository;
+
+	@Autowired
+	private JwtUtil jwtUtil;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final List<String> storeTokens = new ArrayList<>();
+	private String bearer;
+
+	@BeforeEach
+	void seed() {
+		String id = UUID.randomUUID().toString();
+		User user = new User();
+		user.setGoogleId("list-" + id);
+		user.setEmail("list-" + id + "@example.com");
+		user.setName("List Test");
+		user = userRepository.save(user);
+		for (int i = 0; i < 5; i++) {
+			Store store = new Store();
+			store.setToken(UUID.randomUUID().toString());
+			store.setName("store-" + i);
+			store.setDescription("");
+			store.getOwners().add(user);
+			storeRepository.save(store);
+			user.getStores().add(store);
+			storeTokens.add(store.getToken());
+		}
+		userRepository.save(user);
+		bearer = "Bearer " + jwtUtil.generateToken(user.getId().toString(), user.getEmail(), user.getName());
+	}
+
+	private JsonNode listPage(String query) throws Exception {
+		MvcResult result = mockMvc.perform(get("/store" + query).header("Authorization", bearer))
+				.andExpect(status().isOk())
+				.andReturn();
+		return objectMapper.readTree(result.getResponse().getContentAsString()).get("data");
+	}
+
+	@Test
+	void pagesThroughEveryStoreOnce() throws Exception {
+		List<String> seen = new ArrayList<>();
+		List<Instant> createdAt = new ArrayList<>();
+		String cursor = null;
+		int pages = 0;
+		do {
+			JsonNode data = listPage("?limit=2" + (cursor != null ? "&cursor=" + cursor : ""));
+			for (JsonNode store : data.get("stores")) {
+				seen.add(store.get("token").asText());
+				createdAt.add(Instant.parse(store.get("createdAt").asText()));
+				assertThat(store.get("users")).hasSize(1);
+			}
+			cursor = data.get("nextCursor").isNull() ? null : data.get("nextCursor").asText();
+			pages++;
+		} while (cursor != null);
+		assertThat(pages).isEqualTo(3);
+		assertThat(seen).containsExactlyInAnyOrderElementsOf(storeTokens);
+		assertThat(createdAt).isSorted();
+	}
+
+	@Test
+	void rejectsBadCursorsAndLimits() throws Exception {
+		mockMvc.perform(get("/store?cursor=not-a-cursor").header("Authorization", bearer))
+				.andExpect(status().isBadRequest())
+				.andExpect(jsonPath("$.message").value("Invalid cursor"));
+		mockMvc.perform(get("/store?limit=0").header("Authorization", bearer))
+				.andExpect(status().isBadRequest());
+		mockMvc.perform(get("/store?limit=100000").header("Authorization", bearer))
+				.andExpect(status().isBadRequest());
+	}
+
+	@Test
+	void answersUnchangedListsWithNotModified() throws Exception {
+		String etag = mockMvc.perform(get("/store?limit=2").header("Authorization", bearer))
+				.andExpect(status().isOk())
+				.andExpect(header().exists("ETag"))
+				.andReturn().getResponse().getHeader("ETag");
+		mockMvc.perform(get("/store?limit=2").header("Authorization", bearer).header("If-None-Match", etag))
+				.andExpect(status().isNotModified())
+				.andExpect(header().string("ETag", etag));
+		// Another page size is another representation
+		mockMvc.perform(get("/store?limit=3").header("Authorization", bearer).header("If-None-Match", etag))
+				.andExpect(status().isOk());
+
+		// A new store shows up in the full list, so its old tag no longer matches
+		String full = etag("/store", bearer);
+		mockMvc.perform(post("/store").header("Authorization", bearer)
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"name\":\"added\"}"))
+				.andExpect(status().isOk());
+		String changed = mockMvc.perform(get("/store").header("Authorization", bearer).header("If-None-Match", full))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getHeader("ETag");
+		assertThat(changed).isNotNull().isNotEqualTo(full);
+	}
+
+	@Test
+	void coOwnerRenameChangesTheTag() throws Exception {
+		String id = UUID.randomUUID().toString();
+		User coOwner = new User();
+		coOwner.setGoogleId("co-" + id);
+		coOwner.setEmail("co-" + id + "@example.com");
+		coOwner.setName("Co Owner");
+		coOwner.getStores().add(storeRepository.findByToken(storeTokens.get(0)));
+		coOwner = userRepository.save(coOwner);
+		String coBearer = "Bearer " + jwtUtil.generateToken(coOwner.getId().toString(), coOwner.getEmail(), coOwner.getName());
+
+		String etag = etag("/store", bearer);
+		mockMvc.perform(put("/store/" + storeTokens.get(0)).header("Authorization", coBearer)
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"name\":\"renamed\"}"))
+				.andExpect(status().isOk());
+		mockMvc.perform(get("/store").header("Authorization", bearer).header("If-None-Match", etag))
+				.andExpect(status().isOk())
+				.andExpect(header().string("ETag", not(etag)));
+	}
+
+	private String etag(String path, String authorization) throws Exception {
+		return mockMvc.perform(get(path).header("Authorization", authorization))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getHeader("ETag");
+	}
+}
@@ -0,0 +1,123 @@
+package com.kvspp.cloud.server.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kvspp.cloud.server.model.Store;
+import com.kvspp.cloud.server.model.User;
+import com.kvspp.cloud.server.repository.StoreRepository;
+import com.kvspp.cloud.server.repository.UserRepository;
+import com.kvspp.cloud.server.security.JwtUtil;
+import com.kvspp.cloud.server.tcp.KvsppStandInServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class StoreKeyScanTests {
+
+	static final KvsppStandInServer standIn;
+
+	static {
+		try {
+			standIn = new KvsppStandInServer().start();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@DynamicPropertySource
+	static void backend(DynamicPropertyRegistry registry) {
+		registry.add("kvspp.tcp.port", standIn::getPort);
+	}
+
+	@AfterAll
+	static void stopStandIn() {
+		standIn.close();
+	}
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private StoreRepository storeRepository;
+
+	@Autowired
+	private JwtUtil jwtUtil;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	@Test
+	void keysNamedLikeMetadataStayInTheirEntries() throws Exception {
+		String id = UUID.randomUUID().toString();
+		Store store = new Store();
+		store.setToken(UUID.randomUUID().toString());
+		store.setName("scan");
+		store.setDescription("");
+		store = storeRepository.save(store);
+		User user = new User();
+		user.setGoogleId("scan-" + id);
+		user.setEmail("scan-" + id + "@example.com");
+		user.setName("Scan Test");
+		user.getStores().add(store);
+		user = userRepository.save(user);
+		String bearer = "Bearer " + jwtUtil.generateToken(user.getId().toString(), user.getEmail(), user.getName());
+		Map<String, String> data = standIn.store(store.getToken());
+		data.put("keys", "k");
+		data.put("nextCursor", "c");
+		data.put("totalKeys", "t");
+		data.put("version", "v");
+
+		List<String> keys = new ArrayList<>();
+		String cursor = null;
+		do {
+			String body = mockMvc.perform(get("/store/" + store.getToken() + "/keys?limit=3"
+							+ (cursor != null ? "&cursor=" + cursor : "")).header("Authorization", bearer))
+					.andExpect(status().isOk())
+					.andExpect(jsonPath("$.data.totalKeys").value(4))
+					.andReturn().getResponse().getContentAsString();
+			JsonNode page = objectMapper.readTree(body).get("data");
+			for (JsonNode entry : page.get("entries")) {
+				keys.add(entry.get("key").asText());
+				assertThat(entry.get("value").asText()).isEqualTo(data.get(entry.get("key").asText()));
+			}
+			cursor = page.get("nextCursor").isNull() ? null : page.get("nextCursor").asText();
+		} while (cursor != null);
+		assertThat(keys).containsExactly("keys", "nextCursor", "totalKeys", "version");
+
+		// GET /store/{token}/keys is the scan, so a key named "keys" is read through mget
+		MvcResult mget = mockMvc.perform(post("/store/" + store.getToken() + "/mget").header("Authorization", bearer)
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"keys\":[\"keys\"]}"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		mockMvc.perform(asyncDispatch(mget))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.data.results[0].value").value("k"));
+	}
+}
@@ -0,0 +1,136 @@
+package com.kvspp.cloud.server.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KvsppValueCacheTests {
+
+	private KvsppValueCache cache;
+
+	@BeforeEach
+	void setUp() {
+		cache = new KvsppValueCache();
+		ReflectionTestUtils.setField(cache, "enabled", true);
+		ReflectionTestUtils.setField(cache, "maxEntries", 1600);
+		ReflectionTestUtils.setField(cache, "maxBytes", 16L * 1024 * 1024);
+		ReflectionTestUtils.setField(cache, "ttlMs", 0L);
+		ReflectionTestUtils.setField(cache, "excludedStores", Set.of("excluded"));
+		ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+		cache.init();
+	}
+
+	@Test
+	void cachesLoadsThatNoWriteRaced() {
+		long ticket = cache.beginLoad("s", "k");
+		cache.put("s", "k", "VALUE 1", ticket);
+		assertThat(cache.get("s", "k")).isEqualTo("VALUE 1");
+		cache.put("s", "missing", "NOT_FOUND", cache.beginLoad("s", "missing"));
+		assertThat(cache.get("s", "missing")).isEqualTo("NOT_FOUND");
+		// Errors and other replies are never cached
+		cache.put("s", "broken", "ERROR Injected failure", cache.beginLoad("s", "broken"));
+		assertThat(cache.get("s", "broken")).isNull();
+		cache.put("excluded", "k", "VALUE 1", cache.beginLoad("excluded", "k"));
+		assertThat(cache.get("excluded", "k")).isNull();
+	}
+
+	@Test
+	void dropsLoadsStartedBeforeAWrite() {
+		long ticket = cache.beginLoad("s", "k");
+		cache.invalidate("s", "k");
+		cache.put("s", "k", "VALUE stale", ticket);
+		assertThat(cache.get("s", "k")).isNull();
+		cache.put("s", "k", "VALUE fresh", cache.beginLoad("s", "k"));
+		assertThat(cache.get("s", "k")).isEqualTo("VALUE fresh");
+	}
+
+	@Test
+	void dropsLoadsStartedBeforeAStoreWideWrite() {
+		long ticket = cache.beginLoad("s", "k");
+		cache.put("s", "other", "VALUE 1", cache.beginLoad("s", "other"));
+		long before = cache.writeVersion("s");
+		cache.invalidateForCommand("s", "LOAD backup.json");
+		cache.put("s", "k", "VALUE stale", ticket);
+		assertThat(cache.get("s", "k")).isNull();
+		assertThat(cache.get("s", "other")).isNull();
+		assertThat(cache.writeVersion("s")).isGreaterThan(before);
+	}
+
+	@Test
+	void proxiedCommandsInvalidateTheirKey() {
+		cache.put("s", "k", "VALUE 1", cache.beginLoad("s", "k"));
+		cache.invalidateForCommand("s", "GET k");
+		assertThat(cache.get("s", "k")).isEqualTo("VALUE 1");
+		cache.invalidateForCommand("s", "  set k 2");
+		assertThat(cache.get("s", "k")).isNull();
+	}
+
+	@Test
+	void concurrentReadersNeverCacheAValueOlderThanTheLastWrite() throws Exception {
+		// The "backend" holds one value per key; writers follow the invalidate-write-invalidate pattern
+		ConcurrentHashMap<String, String> backend = new ConcurrentHashMap<>();
+		List<String> keys = List.of("a", "b", "c", "d");
+		keys.forEach(key -> backend.put(key, "VALUE 0"));
+		AtomicBoolean running = new AtomicBoolean(true);
+		CountDownLatch done = new CountDownLatch(6);
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			threads.add(Thread.ofPlatform().start(() -> {
+				while (running.get()) {
+					for (String key : keys) {
+						if (cache.get("race", key) == null) {
+							long ticket = cache.beginLoad("race", key);
+							String reply = backend.get(key);
+							Thread.yield();
+							cache.put("race", key, reply, ticket);
+						}
+					}
+				}
+				done.countDown();
+			}));
+		}
+		for (int t = 0; t < 2; t++) {
+			int writer = t;
+			threads.add(Thread.ofPlatform().start(() -> {
+				for (int i = 1; i <= 20_000; i++) {
+					String key = keys.get(i % keys.size());
+					cache.invalidate("race", key);
+					backend.put(key, "VALUE " + writer + "-" + i);
+					cache.invalidate("race", key);
+				}
+				done.countDown();
+			}));
+		}
+		Thread.sleep(200);
+		threads.get(4).join(TimeUnit.SECONDS.toMillis(30));
+		threads.get(5).join(TimeUnit.SECONDS.toMillis(30));
+		running.set(false);
+		assertThat(done.await(30, TimeUnit.SECONDS)).isTrue();
+		for (String key : keys) {
+			String cached = cache.get("race", key);
+			if (cached != null) {
+				assertThat(cached).isEqualTo(backend.get(key));
+			}
+		}
+	}
+
+	@Test
+	void staysWithinItsEntryLimit() {
+		for (int i = 0; i < 10_000; i++) {
+			cache.put("s", "key-" + i, "VALUE " + i, cache.beginLoad("s", "key-" + i));
+		}
+		assertThat(cache.size()).isLessThanOrEqualTo(1600);
+		assertThat(cache.get("s", "key-9999")).isEqualTo("VALUE 9999");
+	}
+}
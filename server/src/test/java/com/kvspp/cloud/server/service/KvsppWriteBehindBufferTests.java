@@ -0,0 +1,111 @@
+package com.kvspp.cloud.server.service;
+
+import com.kvspp.cloud.server.tcp.KvsppCommand;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class KvsppWriteBehindBufferTests {
+
+	private static final String STORE = "buffered";
+
+	private KvsppWriteBehindBuffer buffer;
+	private SimpleMeterRegistry meterRegistry;
+	private final List<KvsppCommand> flushed = new ArrayList<>();
+	private String flushReply = "OK";
+
+	@BeforeEach
+	void setUp() {
+		KvsppTcpClientService tcpClientService = mock(KvsppTcpClientService.class);
+		when(tcpClientService.sendBatchAsync(eq(STORE), anyList())).thenAnswer(invocation -> {
+			List<KvsppCommand> commands = invocation.getArgument(1);
+			flushed.addAll(commands);
+			List<CompletableFuture<String>> replies = new ArrayList<>();
+			for (int i = 0; i < commands.size(); i++) {
+				replies.add(CompletableFuture.completedFuture(flushReply));
+			}
+			return replies;
+		});
+		meterRegistry = new SimpleMeterRegistry();
+		buffer = new KvsppWriteBehindBuffer();
+		ReflectionTestUtils.setField(buffer, "stores", Set.of(STORE));
+		ReflectionTestUtils.setField(buffer, "maxBuffered", 500);
+		// Long enough that the timer never flushes during a test
+		ReflectionTestUtils.setField(buffer, "flushIntervalMs", 60_000L);
+		ReflectionTestUtils.setField(buffer, "readTimeoutMs", 5_000L);
+		ReflectionTestUtils.setField(buffer, "kvsppTcpClientService", tcpClientService);
+		ReflectionTestUtils.setField(buffer, "meterRegistry", meterRegistry);
+		buffer.init();
+	}
+
+	@AfterEach
+	void tearDown() {
+		buffer.shutdown();
+	}
+
+	@Test
+	void keepsWhitespaceInValuesLikeTheBackend() {
+		assertThat(buffer.proxy(STORE, "SET k  two  spaces ", KvsppWriteBehindBufferTests::unexpected).join()).isEqualTo("OK");
+		assertThat(buffer.lookup(STORE, "k")).isEqualTo("VALUE  two  spaces ");
+		// KVS++ reads an empty key here, so the command is not taken as a GET of "k"
+		List<String> sent = new ArrayList<>();
+		buffer.proxy(STORE, "GET  k", command -> {
+			sent.add(command);
+			return CompletableFuture.completedFuture("ERROR Missing key");
+		}).join();
+		assertThat(sent).containsExactly("GET  k");
+	}
+
+	@Test
+	void commandsWaitBehindACommandWaitingForAFlush() {
+		buffer.proxy(STORE, "SET k before", KvsppWriteBehindBufferTests::unexpected).join();
+		CompletableFuture<String> load = new CompletableFuture<>();
+		CompletableFuture<String> loadReply = buffer.proxy(STORE, "LOAD", command -> load);
+		assertThat(flushed).containsExactly(KvsppCommand.set("k", "before"));
+
+		CompletableFuture<String> set = buffer.proxy(STORE, "SET k after", KvsppWriteBehindBufferTests::unexpected);
+		CompletableFuture<String> get = buffer.proxy(STORE, "GET k", KvsppWriteBehindBufferTests::unexpected);
+		assertThat(set).isNotDone();
+		assertThat(get).isNotDone();
+		assertThat(buffer.lookup(STORE, "k")).isNull();
+
+		load.complete("OK");
+		assertThat(loadReply.join()).isEqualTo("OK");
+		assertThat(set.join()).isEqualTo("OK");
+		assertThat(get.join()).isEqualTo("VALUE after");
+
+		// Nothing is waiting any more, so buffered writes are acknowledged at once again
+		assertThat(buffer.proxy(STORE, "SET k again", KvsppWriteBehindBufferTests::unexpected)).isCompletedWithValue("OK");
+	}
+
+	@Test
+	void failedFlushesAreCountedNotReportedToLaterCallers() {
+		flushReply = "ERROR Disk full";
+		buffer.set(STORE, "a", "1");
+		buffer.delete(STORE, "b");
+		buffer.flush(STORE).join();
+		assertThat(meterRegistry.counter("kvspp.write-behind.failed").count()).isEqualTo(2);
+
+		flushReply = "OK";
+		assertThat(buffer.proxy(STORE, "JSON", command -> CompletableFuture.completedFuture("{}")).join())
+				.isEqualTo("{}");
+		buffer.flush(STORE).join();
+	}
+
+	private static CompletableFuture<String> unexpected(String command) {
+		throw new AssertionError("Sent to the backend: " + command);
+	}
+}
@@ -0,0 +1,81 @@
+package com.kvspp.cloud.server.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RequestRateLimiterTests {
+
+	private static RequestRateLimiter limiter(double ipPerSecond, int ipBurst, double storePerSecond, int storeBurst,
+											  int maxTracked) {
+		RequestRateLimiter limiter = new RequestRateLimiter();
+		ReflectionTestUtils.setField(limiter, "ipPerSecond", ipPerSecond);
+		ReflectionTestUtils.setField(limiter, "ipBurst", ipBurst);
+		ReflectionTestUtils.setField(limiter, "storePerSecond", storePerSecond);
+		ReflectionTestUtils.setField(limiter, "storeBurst", storeBurst);
+		ReflectionTestUtils.setField(limiter, "maxTracked", maxTracked);
+		ReflectionTestUtils.setField(limiter, "meterRegistry", new SimpleMeterRegistry());
+		limiter.init();
+		return limiter;
+	}
+
+	@Test
+	void allowsABurstThenRefillsAtTheConfiguredRate() throws Exception {
+		// One token per second, five at once; slow enough that a cold JVM cannot refill a token mid-test
+		RequestRateLimiter limiter = limiter(1, 5, 0, 1, 1000);
+		for (int i = 0; i < 5; i++) {
+			assertThat(limiter.acquire("10.0.0.1", "s", 1, RequestRateLimiter.REST)).isZero();
+		}
+		long wait = limiter.acquire("10.0.0.1", "s", 1, RequestRateLimiter.REST);
+		assertThat(wait).isPositive().isLessThanOrEqualTo(TimeUnit.SECONDS.toNanos(1));
+		// Other clients have buckets of their own
+		assertThat(limiter.acquire("10.0.0.2", "s", 1, RequestRateLimiter.REST)).isZero();
+		TimeUnit.NANOSECONDS.sleep(wait + TimeUnit.MILLISECONDS.toNanos(10));
+		assertThat(limiter.acquire("10.0.0.1", "s", 1, RequestRateLimiter.REST)).isZero();
+		assertThat(limiter.acquire("10.0.0.1", "s", 1, RequestRateLimiter.REST)).isPositive();
+	}
+
+	@Test
+	void capsCostsAtTheBurstSize() {
+		RequestRateLimiter limiter = limiter(1, 5, 0, 1, 1000);
+		assertThat(limiter.acquire("10.0.0.1", "s", 1000, RequestRateLimiter.WEBSOCKET)).isZero();
+		assertThat(limiter.acquire("10.0.0.1", "s", 1, RequestRateLimiter.WEBSOCKET)).isPositive();
+	}
+
+	@Test
+	void refundsTheClientWhenTheStoreRefuses() {
+		RequestRateLimiter limiter = limiter(1, 2, 1, 1, 1000);
+		assertThat(limiter.acquire("10.0.0.1", "busy", 1, RequestRateLimiter.REST)).isZero();
+		// Refused by the store bucket, so the client's token is given back
+		assertThat(limiter.acquire("10.0.0.1", "busy", 1, RequestRateLimiter.REST)).isPositive();
+		assertThat(limiter.acquire("10.0.0.1", "other", 1, RequestRateLimiter.REST)).isZero();
+		assertThat(limiter.acquire("10.0.0.1", "third", 1, RequestRateLimiter.REST)).isPositive();
+	}
+
+	@Test
+	void evictsLeastUsedBucketsFirst() {
+		RequestRateLimiter limiter = limiter(1, 5, 0, 1, 10);
+		for (int i = 0; i < 5; i++) {
+			assertThat(limiter.acquire("10.0.0.1", "s", 1, RequestRateLimiter.REST)).isZero();
+		}
+		for (int i = 2; i <= 20; i++) {
+			limiter.acquire("10.0.0." + i, "s", 1, RequestRateLimiter.REST);
+		}
+		// The drained bucket is the one furthest from refilled, so it survives eviction
+		assertThat(limiter.acquire("10.0.0.1", "s", 1, RequestRateLimiter.REST)).isPositive();
+	}
+
+	@Test
+	void limitsIpv6ClientsPerSlash64() {
+		assertThat(RequestRateLimiter.clientKey("2001:db8:1:2:aaaa::1"))
+				.isEqualTo(RequestRateLimiter.clientKey("2001:db8:1:2:bbbb::2"))
+				.isEqualTo("2001:db8:1:2::/64");
+		assertThat(RequestRateLimiter.clientKey("2001:db8:1:3::1")).isNotEqualTo(RequestRateLimiter.clientKey("2001:db8:1:2::1"));
+		assertThat(RequestRateLimiter.clientKey("192.0.2.7")).isEqualTo("192.0.2.7");
+		assertThat(RequestRateLimiter.clientKey(null)).isEqualTo("unknown");
+	}
+}
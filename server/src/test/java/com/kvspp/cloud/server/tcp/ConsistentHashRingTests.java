@@ -0,0 +1,75 @@
+package com.kvspp.cloud.server.tcp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ConsistentHashRingTests {
+
+	private static final int STORES = 20_000;
+	private static final List<KvsppBackend> BACKENDS = List.of(
+			new KvsppBackend("10.0.0.1", 5555),
+			new KvsppBackend("10.0.0.2", 5555),
+			new KvsppBackend("10.0.0.3", 5555),
+			new KvsppBackend("10.0.0.4", 5555));
+
+	private static String token(int i) {
+		// Store tokens are random UUIDs; derive them from i so the test is repeatable
+		return UUID.nameUUIDFromBytes(("store-" + i).getBytes()).toString();
+	}
+
+	@Test
+	void spreadsStoresEvenly() {
+		ConsistentHashRing ring = new ConsistentHashRing(BACKENDS, 160);
+		Map<KvsppBackend, Integer> counts = new HashMap<>();
+		for (int i = 0; i < STORES; i++) {
+			counts.merge(ring.nodeFor(token(i)), 1, Integer::sum);
+		}
+		assertThat(counts).containsOnlyKeys(BACKENDS);
+		int mean = STORES / BACKENDS.size();
+		for (int count : counts.values()) {
+			assertThat(count).isBetween((int) (mean * 0.75), (int) (mean * 1.25));
+		}
+	}
+
+	@Test
+	void addingABackendOnlyMovesStoresToIt() {
+		ConsistentHashRing ring = new ConsistentHashRing(BACKENDS, 160);
+		KvsppBackend added = new KvsppBackend("10.0.0.5", 5555);
+		ConsistentHashRing grown = ring.withNode(added);
+		assertThat(grown.contains(added)).isTrue();
+		assertThat(ring.contains(added)).isFalse();
+		int moved = 0;
+		for (int i = 0; i < STORES; i++) {
+			KvsppBackend before = ring.nodeFor(token(i));
+			KvsppBackend after = grown.nodeFor(token(i));
+			if (!before.equals(after)) {
+				assertThat(after).isEqualTo(added);
+				moved++;
+			}
+		}
+		// Roughly 1/5 of the stores belong to the new backend
+		assertThat((double) moved / STORES).isBetween(0.12, 0.28);
+	}
+
+	@Test
+	void mapsTheSameWayEveryTime() {
+		ConsistentHashRing ring = new ConsistentHashRing(BACKENDS, 160);
+		ConsistentHashRing rebuilt = new ConsistentHashRing(List.of(BACKENDS.get(2), BACKENDS.get(0), BACKENDS.get(3), BACKENDS.get(1)), 160);
+		for (int i = 0; i < 1000; i++) {
+			assertThat(rebuilt.nodeFor(token(i))).isEqualTo(ring.nodeFor(token(i)));
+		}
+	}
+
+	@Test
+	void rejectsEmptyRings() {
+		assertThatThrownBy(() -> new ConsistentHashRing(List.of(), 160)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> new ConsistentHashRing(BACKENDS, 0)).isInstanceOf(IllegalArgumentException.class);
+	}
+}
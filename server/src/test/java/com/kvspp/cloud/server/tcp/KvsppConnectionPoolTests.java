@@ -0,0 +1,83 @@
+package com.kvspp.cloud.server.tcp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KvsppConnectionPoolTests {
+
+	private static KvsppPoolSettings settings(int minSize, int maxSize, long validationIntervalMs, long evictionIntervalMs) {
+		return new KvsppPoolSettings(minSize, maxSize, 60_000, 5_000, validationIntervalMs, evictionIntervalMs, 3000, 5000);
+	}
+
+	private static void awaitTotal(KvsppConnectionPool pool, int total) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (pool.getTotalCount() < total && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(pool.getTotalCount()).isEqualTo(total);
+	}
+
+	@Test
+	void probesPreOpenedConnectionsThatNeverSelectedAStore() throws Exception {
+		try (KvsppStandInServer standIn = new KvsppStandInServer().start()) {
+			// The stand-in drops the pre-opened connection, which still looks open to the pool
+			standIn.setMaxConnections(0);
+			try (KvsppConnectionPool pool = new KvsppConnectionPool(standIn.getHost(), standIn.getPort(),
+					settings(1, 4, 0, 60_000))) {
+				awaitTotal(pool, 1);
+				long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+				while (standIn.getRejectedConnections() == 0 && System.nanoTime() < deadline) {
+					Thread.sleep(10);
+				}
+				standIn.setMaxConnections(Integer.MAX_VALUE);
+
+				KvsppConnection connection = pool.borrow("probed");
+				try {
+					assertThat(connection.execute("SET", "k", "v")).isEqualTo("OK");
+				} finally {
+					pool.release(connection);
+				}
+				assertThat(pool.getTotalCount()).isEqualTo(1);
+			}
+		}
+	}
+
+	@Test
+	void topUpAndBorrowersStayWithinMaxSize() throws Exception {
+		try (KvsppStandInServer standIn = new KvsppStandInServer().start();
+			 ExecutorService borrowers = Executors.newFixedThreadPool(2)) {
+			for (int round = 0; round < 50; round++) {
+				// Maintenance starts topping up at once and keeps trying while both borrowers open connections
+				try (KvsppConnectionPool pool = new KvsppConnectionPool(standIn.getHost(), standIn.getPort(),
+						settings(2, 2, 60_000, 1))) {
+					CountDownLatch start = new CountDownLatch(1);
+					List<Future<?>> borrowed = new ArrayList<>();
+					for (int i = 0; i < 2; i++) {
+						borrowed.add(borrowers.submit(() -> {
+							start.await();
+							KvsppConnection connection = pool.borrow("capped");
+							Thread.sleep(5);
+							pool.release(connection);
+							return null;
+						}));
+					}
+					start.countDown();
+					for (Future<?> future : borrowed) {
+						future.get(5, TimeUnit.SECONDS);
+					}
+					Thread.sleep(5);
+					assertThat(pool.getTotalCount()).isLessThanOrEqualTo(2);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package com.kvspp.cloud.server.tcp;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KvsppLineCodecTests {
+
+	@Test
+	void encodesUtf8LikeGetBytes() {
+		for (String value : List.of("plain", "café", "€ uro", "emoji 😀", "lone \ud83d surrogate")) {
+			int length = KvsppLineCodec.encodedLength("SET", "k", value);
+			ByteBuffer out = ByteBuffer.allocate(length);
+			KvsppLineCodec.encode(out, "SET", "k", value);
+			assertThat(out.position()).isEqualTo(length);
+			assertThat(out.array()).isEqualTo(("SET k " + value + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	void growsBuffersWithoutLosingContents() {
+		ByteBuffer out = ByteBuffer.allocate(4);
+		out.put((byte) 'G');
+		out = KvsppLineCodec.ensureRemaining(out, KvsppLineCodec.encodedLength("ET", "key", null));
+		KvsppLineCodec.encode(out, "ET", "key", null);
+		out.flip();
+		assertThat(StandardCharsets.UTF_8.decode(out).toString()).isEqualTo("GET key\n");
+	}
+
+	@Test
+	void decodesFixedRepliesToConstantsAndDropsCarriageReturn() {
+		byte[] ok = "OK\r".getBytes(StandardCharsets.US_ASCII);
+		assertThat(KvsppLineCodec.decode(ok, 0, ok.length)).isSameAs(KvsppLineCodec.OK);
+		byte[] notFound = "xxNOT_FOUND".getBytes(StandardCharsets.US_ASCII);
+		assertThat(KvsppLineCodec.decode(notFound, 2, notFound.length - 2)).isSameAs(KvsppLineCodec.NOT_FOUND);
+		byte[] value = "VALUE café\r".getBytes(StandardCharsets.UTF_8);
+		assertThat(KvsppLineCodec.decode(value, 0, value.length)).isEqualTo("VALUE café");
+	}
+
+	@Test
+	void rejectsLineBreaksInAnyPart() {
+		assertThat(KvsppLineCodec.isSingleLine("SET", "key", "value")).isTrue();
+		assertThat(KvsppLineCodec.isSingleLine("GET", "key", null)).isTrue();
+		assertThat(KvsppLineCodec.isSingleLine("SET", "key", "a\nSELECT other")).isFalse();
+		assertThat(KvsppLineCodec.isSingleLine("SET", "key\r", "value")).isFalse();
+		assertThat(KvsppLineCodec.isSingleLine("GET a\r\nGET b", null, null)).isFalse();
+	}
+
+	@Test
+	void reassemblesRepliesSplitAcrossReads() throws Exception {
+		String longValue = "x".repeat(40_000);
+		try (ServerSocket server = new ServerSocket();
+			 KvsppEventLoopGroup eventLoopGroup = new KvsppEventLoopGroup(1)) {
+			server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			// Answers SELECT, then the next four commands in fragments that cut lines and "\r\n" apart
+			CompletableFuture<List<String>> received = CompletableFuture.supplyAsync(() -> {
+				try (Socket socket = server.accept()) {
+					BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+					OutputStream out = socket.getOutputStream();
+					String select = in.readLine();
+					out.write("OK\n".getBytes(StandardCharsets.UTF_8));
+					out.flush();
+					List<String> commands = List.of(in.readLine(), in.readLine(), in.readLine(), in.readLine());
+					for (String fragment : List.of("VAL", "UE café\r", "\nOK\r", "\nNOT_F", "OUND\nVALUE " + longValue.substring(0, 20_000),
+							longValue.substring(20_000) + "\r\n")) {
+						out.write(fragment.getBytes(StandardCharsets.UTF_8));
+						out.flush();
+						Thread.sleep(20);
+					}
+					return List.of(select, String.join("|", commands));
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			try (PipelinedKvsppConnection connection = PipelinedKvsppConnection.open("127.0.0.1",
+					server.getLocalPort(), eventLoopGroup.next(), 128, 100, 3000, 5000)) {
+				List<CompletableFuture<String>> replies = connection.sendAll("split",
+						List.of("GET a", "SET b 1", "GET c", "GET long"));
+				assertThat(replies.get(0).get(5, TimeUnit.SECONDS)).isEqualTo("VALUE café");
+				assertThat(replies.get(1).get(5, TimeUnit.SECONDS)).isSameAs(KvsppLineCodec.OK);
+				assertThat(replies.get(2).get(5, TimeUnit.SECONDS)).isSameAs(KvsppLineCodec.NOT_FOUND);
+				assertThat(replies.get(3).get(5, TimeUnit.SECONDS)).isEqualTo("VALUE " + longValue);
+			}
+			assertThat(received.get(5, TimeUnit.SECONDS)).containsExactly("SELECT split", "GET a|SET b 1|GET c|GET long");
+		}
+	}
+}
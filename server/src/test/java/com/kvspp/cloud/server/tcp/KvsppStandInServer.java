@@ -0,0 +1,281 @@
+package com.kvspp.cloud.server.tcp;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// In-JVM stand-in for the KVS++ TCP server, for tests and benchmarks. Speaks the same line
+// protocol (SELECT, GET, SET, DELETE, JSON, SAVE, LOAD, AUTOSAVE) against in-memory stores,
+// and can add latency, jitter, injected errors, dropped connections and a connection limit.
+// Every setting can be changed while the server runs.
+public class KvsppStandInServer implements Closeable {
+
+	private final ServerSocket serverSocket;
+	private final ConcurrentHashMap<String, StandInStore> stores = new ConcurrentHashMap<>();
+	// SAVE/LOAD "disk", keyed by file name
+	private final ConcurrentHashMap<String, Map<String, String>> files = new ConcurrentHashMap<>();
+	private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger peakConnections = new AtomicInteger();
+	private final AtomicLong commandCount = new AtomicLong();
+	private final AtomicLong rejectedConnections = new AtomicLong();
+	private final JsonFactory jsonFactory = new JsonFactory();
+
+	private volatile long latencyMicros;
+	private volatile long jitterMicros;
+	private volatile double errorRate;
+	private volatile double disconnectRate;
+	private volatile int maxConnections = Integer.MAX_VALUE;
+	private volatile boolean closed;
+
+	public KvsppStandInServer() throws IOException {
+		this(0);
+	}
+
+	// Port 0 picks a free port; see getPort()
+	public KvsppStandInServer(int port) throws IOException {
+		serverSocket = new ServerSocket();
+		serverSocket.setReuseAddress(true);
+		serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+	}
+
+	public KvsppStandInServer start() {
+		Thread.ofPlatform().daemon().name("kvspp-stand-in-accept").start(this::acceptLoop);
+		return this;
+	}
+
+	public String getHost() { return serverSocket.getInetAddress().getHostAddress(); }
+	public int getPort() { return serverSocket.getLocalPort(); }
+
+	// Fixed delay before every reply, plus a uniformly random extra delay of up to jitter
+	public KvsppStandInServer setLatencyMicros(long latencyMicros, long jitterMicros) {
+		this.latencyMicros = latencyMicros;
+		this.jitterMicros = jitterMicros;
+		return this;
+	}
+
+	// Fraction of commands (0..1) answered with "ERROR Injected failure" instead of running
+	public KvsppStandInServer setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+		return this;
+	}
+
+	// Fraction of commands (0..1) after which the connection is closed without a reply
+	public KvsppStandInServer setDisconnectRate(double disconnectRate) {
+		this.disconnectRate = disconnectRate;
+		return this;
+	}
+
+	// Connections over the limit are accepted and closed straight away
+	public KvsppStandInServer setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+		return this;
+	}
+
+	public int getConnectionCount() { return connections.size(); }
+	public int getPeakConnections() { return peakConnections.get(); }
+	public long getCommandCount() { return commandCount.get(); }
+	public long getRejectedConnections() { return rejectedConnections.get(); }
+
+	// Direct access to a store's contents, for test setup and assertions
+	public Map<String, String> store(String storeToken) {
+		return stores.computeIfAbsent(storeToken, t -> new StandInStore()).data;
+	}
+
+	public void reset() {
+		stores.clear();
+		files.clear();
+		commandCount.set(0);
+		peakConnections.set(connections.size());
+		rejectedConnections.set(0);
+	}
+
+	private void acceptLoop() {
+		while (!closed) {
+			Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (IOException e) {
+				if (!closed) {
+					System.err.println("KVS++ stand-in accept failed: " + e.getMessage());
+				}
+				continue;
+			}
+			if (connections.size() >= maxConnections) {
+				rejectedConnections.incrementAndGet();
+				closeQuietly(socket);
+				continue;
+			}
+			connections.add(socket);
+			peakConnections.accumulateAndGet(connections.size(), Math::max);
+			Thread.ofVirtual().name("kvspp-stand-in-conn").start(() -> serve(socket));
+		}
+	}
+
+	private void serve(Socket socket) {
+		try (socket) {
+			socket.setTcpNoDelay(true);
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+			ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+			StandInStore[] selected = new StandInStore[1];
+			int b;
+			while ((b = in.read()) != -1) {
+				if (b != '\n') {
+					line.write(b);
+					continue;
+				}
+				String command = line.toString(StandardCharsets.UTF_8);
+				line.reset();
+				if (command.endsWith("\r")) {
+					command = command.substring(0, command.length() - 1);
+				}
+				commandCount.incrementAndGet();
+				delay();
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				if (disconnectRate > 0 && random.nextDouble() < disconnectRate) {
+					return;
+				}
+				String reply = errorRate > 0 && random.nextDouble() < errorRate
+						? "ERROR Injected failure"
+						: execute(command, selected);
+				out.write(reply.getBytes(StandardCharsets.UTF_8));
+				out.write('\n');
+				// Pipelined commands that are already buffered are answered before flushing
+				if (in.available() == 0) {
+					out.flush();
+				}
+			}
+		} catch (IOException ignored) {
+			// Client went away
+		} finally {
+			connections.remove(socket);
+		}
+	}
+
+	private void delay() {
+		long micros = latencyMicros;
+		if (jitterMicros > 0) {
+			micros += ThreadLocalRandom.current().nextLong(jitterMicros + 1);
+		}
+		if (micros <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(micros / 1000, (int) (micros % 1000) * 1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private String execute(String command, StandInStore[] selected) throws IOException {
+		String[] parts = command.split(" ", 3);
+		String verb = parts[0].toUpperCase();
+		if (verb.equals("SELECT")) {
+			if (parts.length < 2 || parts[1].isEmpty()) {
+				return "ERROR Missing store token";
+			}
+			selected[0] = stores.computeIfAbsent(parts[1], t -> new StandInStore());
+			return "OK";
+		}
+		StandInStore store = selected[0];
+		if (store == null) {
+			return "ERROR No store selected";
+		}
+		switch (verb) {
+			case "GET": {
+				if (parts.length < 2) return "ERROR Missing key";
+				String value = store.data.get(parts[1]);
+				return value == null ? "NOT_FOUND" : "VALUE " + value;
+			}
+			case "SET": {
+				if (parts.length < 3) return "ERROR Missing value";
+				store.data.put(parts[1], parts[2]);
+				return "OK";
+			}
+			case "DELETE": {
+				if (parts.length < 2) return "ERROR Missing key";
+				return store.data.remove(parts[1]) != null ? "OK" : "NOT_FOUND";
+			}
+			case "JSON":
+				return toJson(store);
+			case "SAVE": {
+				if (parts.length < 2) return "ERROR Missing file name";
+				files.put(parts[1], Map.copyOf(store.data));
+				return "OK";
+			}
+			case "LOAD": {
+				if (parts.length < 2) return "ERROR Missing file name";
+				Map<String, String> saved = files.get(parts[1]);
+				if (saved == null) return "ERROR File not found";
+				store.data.clear();
+				store.data.putAll(saved);
+				return "OK";
+			}
+			case "AUTOSAVE": {
+				if (parts.length < 2) return "ERROR Missing ON/OFF";
+				String mode = parts[1].toUpperCase();
+				if (!mode.equals("ON") && !mode.equals("OFF")) return "ERROR Expected ON or OFF";
+				store.autosave = mode.equals("ON");
+				return "OK";
+			}
+			default:
+				return "ERROR Unknown command";
+		}
+	}
+
+	private String toJson(StandInStore store) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try (JsonGenerator generator = jsonFactory.createGenerator(buffer)) {
+			generator.writeStartObject();
+			generator.writeObjectFieldStart("store");
+			for (Map.Entry<String, String> entry : store.data.entrySet()) {
+				generator.writeObjectFieldStart(entry.getKey());
+				generator.writeStringField("value", entry.getValue());
+				generator.writeEndObject();
+			}
+			generator.writeBooleanField("autosave", store.autosave);
+			generator.writeEndObject();
+			generator.writeEndObject();
+		}
+		return buffer.toString(StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		closeQuietly(serverSocket);
+		for (Socket socket : connections) {
+			closeQuietly(socket);
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException ignored) {
+		}
+	}
+
+	private static final class StandInStore {
+		private final ConcurrentHashMap<String, String> data = new ConcurrentHashMap<>();
+		private volatile boolean autosave;
+	}
+}
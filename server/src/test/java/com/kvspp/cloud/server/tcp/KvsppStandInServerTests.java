@@ -0,0 +1,78 @@
+package com.kvspp.cloud.server.tcp;
+
+import com.kvspp.cloud.server.service.KvsppTcpClientService;
+import com.kvspp.cloud.server.service.TcpProxyService;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class KvsppStandInServerTests {
+
+	static final KvsppStandInServer standIn;
+
+	static {
+		try {
+			standIn = new KvsppStandInServer().start();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@DynamicPropertySource
+	static void backend(DynamicPropertyRegistry registry) {
+		registry.add("kvspp.tcp.port", standIn::getPort);
+	}
+
+	@AfterAll
+	static void stopStandIn() {
+		standIn.close();
+	}
+
+	@Autowired
+	private KvsppTcpClientService kvsppTcpClientService;
+
+	@Autowired
+	private TcpProxyService tcpProxyService;
+
+	@AfterEach
+	void resetStandIn() {
+		standIn.setErrorRate(0).setLatencyMicros(0, 0);
+	}
+
+	@Test
+	void pooledAndPipelinedCommands() throws Exception {
+		assertThat(kvsppTcpClientService.sendCommand("stand-in-a", "SET greeting hello world")).isEqualTo("OK");
+		assertThat(kvsppTcpClientService.sendAsync("stand-in-a", "GET greeting").get(5, TimeUnit.SECONDS))
+				.isEqualTo("VALUE hello world");
+		assertThat(kvsppTcpClientService.sendAsync("stand-in-a", "SET", "k", "v").get(5, TimeUnit.SECONDS))
+				.isEqualTo("OK");
+		assertThat(standIn.store("stand-in-a")).containsEntry("k", "v");
+		assertThat(kvsppTcpClientService.sendCommand("stand-in-a", "JSON"))
+				.contains("\"greeting\":{\"value\":\"hello world\"}");
+		assertThat(kvsppTcpClientService.sendCommand("stand-in-a", "SAVE a.json")).isEqualTo("OK");
+		assertThat(kvsppTcpClientService.sendCommand("stand-in-a", "DELETE k")).isEqualTo("OK");
+		assertThat(kvsppTcpClientService.sendCommand("stand-in-a", "LOAD a.json")).isEqualTo("OK");
+		assertThat(kvsppTcpClientService.sendCommand("stand-in-a", "GET k")).isEqualTo("VALUE v");
+	}
+
+	@Test
+	void proxySessionAndInjectedErrors() throws Exception {
+		try (TcpProxyService.TcpSession session = tcpProxyService.openSession("stand-in-b")) {
+			assertThat(session.getSelectResponse()).isEqualTo("OK");
+			assertThat(session.send("GET missing").get(5, TimeUnit.SECONDS)).isEqualTo("NOT_FOUND");
+			standIn.setErrorRate(1);
+			assertThat(session.send("GET missing").get(5, TimeUnit.SECONDS)).startsWith("ERROR");
+		}
+	}
+}
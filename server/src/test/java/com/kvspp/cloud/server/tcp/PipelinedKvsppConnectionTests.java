@@ -0,0 +1,189 @@
+package com.kvspp.cloud.server.tcp;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PipelinedKvsppConnectionTests {
+
+	static KvsppStandInServer standIn;
+	static KvsppEventLoopGroup eventLoopGroup;
+
+	@BeforeAll
+	static void start() throws IOException {
+		standIn = new KvsppStandInServer().start();
+		eventLoopGroup = new KvsppEventLoopGroup(2);
+	}
+
+	@AfterAll
+	static void stop() {
+		eventLoopGroup.close();
+		standIn.close();
+	}
+
+	@AfterEach
+	void resetStandIn() {
+		standIn.setDisconnectRate(0).setErrorRate(0).setLatencyMicros(0, 0);
+		standIn.reset();
+	}
+
+	private static PipelinedKvsppConnection open(int maxBatch) throws IOException {
+		return PipelinedKvsppConnection.open(standIn.getHost(), standIn.getPort(), eventLoopGroup.next(),
+				maxBatch, 10_000, 3000, 5000);
+	}
+
+	@Test
+	void repliesAreMatchedInFifoOrder() throws Exception {
+		// Jitter makes the stand-in answer in uneven bursts; small batches split the queue over many writes
+		standIn.setLatencyMicros(0, 200);
+		try (PipelinedKvsppConnection connection = open(16)) {
+			List<String> commands = new ArrayList<>();
+			for (int i = 0; i < 500; i++) {
+				commands.add("SET key-" + i + " value-" + i);
+				commands.add("GET key-" + i);
+			}
+			List<CompletableFuture<String>> replies = connection.sendAll("fifo", commands);
+			for (int i = 0; i < 500; i++) {
+				assertThat(replies.get(2 * i).get(5, TimeUnit.SECONDS)).isEqualTo("OK");
+				assertThat(replies.get(2 * i + 1).get(5, TimeUnit.SECONDS)).isEqualTo("VALUE value-" + i);
+			}
+			assertThat(connection.send("fifo", "GET", "key-7", null).get(5, TimeUnit.SECONDS)).isEqualTo("VALUE value-7");
+		}
+	}
+
+	@Test
+	void switchingStoresWaitsForSelect() throws Exception {
+		// Slow replies keep every SELECT on the wire while later commands are already queued
+		standIn.setLatencyMicros(2000, 0);
+		try (PipelinedKvsppConnection connection = open(128)) {
+			List<CompletableFuture<String>> replies = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				String store = i % 2 == 0 ? "store-a" : "store-b";
+				replies.add(connection.send(store, "SET", "owner", store + "-" + i));
+				replies.add(connection.send(store, "GET owner"));
+			}
+			for (int i = 0; i < 20; i++) {
+				String store = i % 2 == 0 ? "store-a" : "store-b";
+				assertThat(replies.get(2 * i).get(5, TimeUnit.SECONDS)).isEqualTo("OK");
+				assertThat(replies.get(2 * i + 1).get(5, TimeUnit.SECONDS)).isEqualTo("VALUE " + store + "-" + i);
+			}
+			assertThat(standIn.store("store-a")).containsEntry("owner", "store-a-18");
+			assertThat(standIn.store("store-b")).containsEntry("owner", "store-b-19");
+		}
+	}
+
+	@Test
+	void failedSelectFailsOnlyTheBlockedCommand() throws Exception {
+		try (PipelinedKvsppConnection connection = open(128)) {
+			// The stand-in refuses "SELECT " without a token
+			CompletableFuture<String> blocked = connection.send("", "GET key");
+			CompletableFuture<String> after = connection.send("store-c", "GET key");
+			assertThatThrownBy(() -> blocked.get(5, TimeUnit.SECONDS))
+					.isInstanceOf(ExecutionException.class)
+					.hasCauseInstanceOf(IOException.class)
+					.hasMessageContaining("Failed to select store");
+			assertThat(after.get(5, TimeUnit.SECONDS)).isEqualTo("NOT_FOUND");
+			assertThat(connection.isOpen()).isTrue();
+		}
+	}
+
+	@Test
+	void disconnectFailsEveryPendingCommand() throws Exception {
+		try (PipelinedKvsppConnection connection = open(128)) {
+			assertThat(connection.send("store-d", "SET a 1").get(5, TimeUnit.SECONDS)).isEqualTo("OK");
+			standIn.setLatencyMicros(20_000, 0).setDisconnectRate(1);
+			List<CompletableFuture<String>> replies = new ArrayList<>();
+			for (int i = 0; i < 50; i++) {
+				replies.add(connection.send("store-d", "GET a"));
+			}
+			for (CompletableFuture<String> reply : replies) {
+				assertThatThrownBy(() -> reply.get(5, TimeUnit.SECONDS))
+						.isInstanceOf(ExecutionException.class)
+						.hasCauseInstanceOf(IOException.class);
+			}
+			assertThat(connection.isOpen()).isFalse();
+			assertThatThrownBy(() -> connection.send("store-d", "GET a").get(5, TimeUnit.SECONDS))
+					.hasCauseInstanceOf(IOException.class)
+					.hasMessageContaining("closed");
+		}
+	}
+
+	@Test
+	void readTimeoutFailsTheConnection() throws Exception {
+		standIn.setLatencyMicros(2_000_000, 0);
+		try (PipelinedKvsppConnection connection = PipelinedKvsppConnection.open(standIn.getHost(), standIn.getPort(),
+				eventLoopGroup.next(), 128, 10_000, 3000, 300)) {
+			CompletableFuture<String> reply = connection.send("store-t", "GET a");
+			assertThatThrownBy(() -> reply.get(5, TimeUnit.SECONDS))
+					.hasCauseInstanceOf(IOException.class)
+					.hasMessageContaining("Timed out");
+			assertThat(connection.isOpen()).isFalse();
+		}
+	}
+
+	@Test
+	void oneEventLoopServesManyConnections() throws Exception {
+		try (KvsppEventLoopGroup single = new KvsppEventLoopGroup(1)) {
+			List<PipelinedKvsppConnection> connections = new ArrayList<>();
+			List<CompletableFuture<String>> replies = new ArrayList<>();
+			try {
+				for (int i = 0; i < 50; i++) {
+					PipelinedKvsppConnection connection = PipelinedKvsppConnection.open(standIn.getHost(), standIn.getPort(),
+							single.next(), 128, 10_000, 3000, 5000);
+					connections.add(connection);
+					replies.add(connection.send("loop-" + i, "SET", "k", String.valueOf(i)));
+					replies.add(connection.send("loop-" + i, "GET k"));
+				}
+				for (int i = 0; i < 50; i++) {
+					assertThat(replies.get(2 * i).get(5, TimeUnit.SECONDS)).isEqualTo("OK");
+					assertThat(replies.get(2 * i + 1).get(5, TimeUnit.SECONDS)).isEqualTo("VALUE " + i);
+				}
+			} finally {
+				connections.forEach(PipelinedKvsppConnection::close);
+			}
+		}
+	}
+
+	@Test
+	void lineBreaksFailOnlyTheirOwnCommand() throws Exception {
+		try (PipelinedKvsppConnection connection = open(128)) {
+			CompletableFuture<String> injected = connection.send("store-e", "SET", "a", "1\nSELECT other");
+			CompletableFuture<String> carriageReturn = connection.send("store-e", "GET a\rDELETE a");
+			CompletableFuture<String> next = connection.send("store-e", "SET", "a", "2");
+			assertThatThrownBy(() -> injected.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(IllegalArgumentException.class);
+			assertThatThrownBy(() -> carriageReturn.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(IllegalArgumentException.class);
+			assertThat(next.get(5, TimeUnit.SECONDS)).isEqualTo("OK");
+			assertThat(connection.send("store-e", "GET a").get(5, TimeUnit.SECONDS)).isEqualTo("VALUE 2");
+			assertThat(standIn.store("other")).isEmpty();
+		}
+	}
+
+	@Test
+	void clientKeepsEachStoreOnOneConnection() throws Exception {
+		standIn.setLatencyMicros(0, 100);
+		try (KvsppPipelinedClient client = new KvsppPipelinedClient(standIn.getHost(), standIn.getPort(),
+				eventLoopGroup, 3, 32, 10_000, 3000, 5000)) {
+			List<CompletableFuture<String>> replies = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				String store = "client-" + (i % 7);
+				client.send(store, "SET", "counter", String.valueOf(i));
+				replies.add(client.send(store, "GET counter"));
+			}
+			for (int i = 0; i < 200; i++) {
+				assertThat(replies.get(i).get(5, TimeUnit.SECONDS)).isEqualTo("VALUE " + i);
+			}
+			assertThat(client.openConnections()).isLessThanOrEqualTo(3);
+		}
+	}
+}
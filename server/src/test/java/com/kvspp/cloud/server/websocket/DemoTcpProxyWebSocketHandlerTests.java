@@ -0,0 +1,102 @@
+package com.kvspp.cloud.server.websocket;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kvspp.cloud.server.tcp.KvsppStandInServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class DemoTcpProxyWebSocketHandlerTests {
+
+	static final KvsppStandInServer standIn;
+
+	static {
+		try {
+			standIn = new KvsppStandInServer().start();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@DynamicPropertySource
+	static void backend(DynamicPropertyRegistry registry) {
+		registry.add("kvspp.tcp.port", standIn::getPort);
+	}
+
+	@AfterAll
+	static void stopStandIn() {
+		standIn.close();
+	}
+
+	@LocalServerPort
+	private int port;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	@AfterEach
+	void resetStandIn() {
+		standIn.setLatencyMicros(0, 0);
+	}
+
+	@Test
+	void errorsForBadFramesWaitForEarlierReplies() throws Exception {
+		BlockingQueue<String> received = new LinkedBlockingQueue<>();
+		WebSocketSession session = new StandardWebSocketClient().execute(new TextWebSocketHandler() {
+			@Override
+			protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+				received.add(message.getPayload());
+			}
+		}, "ws://localhost:" + port + "/ws/tcp-proxy-demo").get(5, TimeUnit.SECONDS);
+		try {
+			assertThat(type(received.poll(5, TimeUnit.SECONDS))).isEqualTo("select_response");
+
+			// The backend reply is slow, the errors are answered locally
+			standIn.setLatencyMicros(300_000, 0);
+			session.sendMessage(new TextMessage("{\"type\":\"command\",\"payload\":{\"command\":\"GET missing\"}}"));
+			session.sendMessage(new TextMessage("not json"));
+			session.sendMessage(new TextMessage("{\"type\":\"unknown\"}"));
+			session.sendMessage(new TextMessage("{\"type\":\"command\",\"payload\":{\"command\":\"GET a\\nGET b\"}}"));
+			session.sendMessage(new TextMessage("{\"type\":\"command\",\"payload\":{\"command\":\"SELECT other\"}}"));
+			session.sendMessage(new TextMessage("{\"type\":\"batch\",\"payload\":{\"commands\":[]}}"));
+
+			List<JsonNode> replies = new ArrayList<>();
+			for (int i = 0; i < 6; i++) {
+				String reply = received.poll(5, TimeUnit.SECONDS);
+				assertThat(reply).isNotNull();
+				replies.add(objectMapper.readTree(reply));
+			}
+			assertThat(replies.get(0).get("type").asText()).isEqualTo("command_response");
+			assertThat(replies.get(0).get("payload").asText()).isEqualTo("NOT_FOUND");
+			assertThat(replies.subList(1, 6)).extracting(reply -> reply.get("message").asText())
+					.containsExactly("Invalid JSON", "Invalid command format", "Command must be a single line",
+							"SELECT command forbidden", "Empty batch");
+		} finally {
+			session.close();
+		}
+	}
+
+	private String type(String message) throws IOException {
+		assertThat(message).isNotNull();
+		return objectMapper.readTree(message).get("type").asText();
+	}
+}